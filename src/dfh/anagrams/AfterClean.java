@@ -0,0 +1,19 @@
+package dfh.anagrams;
+
+/**
+ * Callback run once the partial evaluation cache has been cleaned.
+ * 
+ * @author houghton
+ *
+ */
+interface AfterClean {
+	/**
+	 * @param initialBranches
+	 *            number of partial evaluations before cleaning
+	 * @param finalBranches
+	 *            number of partial evaluations after cleaning
+	 * @param countsRemoved
+	 *            number of character counts removed
+	 */
+	void run(int initialBranches, int finalBranches, int countsRemoved);
+}
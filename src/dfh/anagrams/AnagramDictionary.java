@@ -0,0 +1,83 @@
+package dfh.anagrams;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An immutable word list, frozen into a trie and ready to be searched. A
+ * dictionary may be shared by any number of concurrent searches.
+ * 
+ * @author houghton
+ *
+ */
+public final class AnagramDictionary {
+	private static final AtomicLong VERSIONS = new AtomicLong();
+	private final Trie trie;
+	private final long version = VERSIONS.incrementAndGet();
+
+	private AnagramDictionary(Trie trie) {
+		this.trie = trie;
+	}
+
+	/**
+	 * @param added
+	 *            words to add
+	 * @param removed
+	 *            words to remove
+	 * @return a new dictionary sharing all it can with this one, which is
+	 *         unchanged
+	 */
+	public AnagramDictionary withChanges(Collection<String> added, Collection<String> removed) {
+		return new AnagramDictionary(trie.withChanges(added, removed));
+	}
+
+	/**
+	 * @return a number distinguishing this dictionary from every other created
+	 *         in this JVM; later dictionaries have larger versions
+	 */
+	public long version() {
+		return version;
+	}
+
+	/**
+	 * @param file
+	 *            word list; one word per line
+	 * @return the dictionary, normalized with {@link StringNormalizer#DEFAULT}
+	 * @throws IOException
+	 */
+	public static AnagramDictionary load(File file) throws IOException {
+		return load(file, StringNormalizer.DEFAULT);
+	}
+
+	public static AnagramDictionary load(File file, StringNormalizer normalizer) throws IOException {
+		return new AnagramDictionary(Trie.load(file, normalizer));
+	}
+
+	public static AnagramDictionary of(Iterable<String> words) {
+		return of(words, StringNormalizer.DEFAULT);
+	}
+
+	public static AnagramDictionary of(Iterable<String> words, StringNormalizer normalizer) {
+		return new AnagramDictionary(Trie.build(words, normalizer));
+	}
+
+	Trie trie() {
+		return trie;
+	}
+
+	/**
+	 * @return the normalizer the words were loaded with
+	 */
+	public StringNormalizer normalizer() {
+		return trie.normalizer;
+	}
+
+	/**
+	 * @return number of distinct words
+	 */
+	public int size() {
+		return trie.terminalNodes();
+	}
+}
@@ -0,0 +1,278 @@
+package dfh.anagrams;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Library facade for embedding the anagram search in a larger program. An
+ * engine serves any number of concurrent queries against one immutable
+ * {@link AnagramDictionary} at a time; see {@link DictionarySnapshots}. Each
+ * query gets its own {@link TrieWalker}, so queries share no mutable state,
+ * and all of them run on one executor, so there is no per-query thread
+ * creation. The executor may be supplied -- on a JVM with virtual threads, for
+ * instance, a virtual-thread-per-task executor -- or the engine will make a
+ * fixed pool of daemon threads, one per processor.
+ * 
+ * @author houghton
+ *
+ */
+public class AnagramEngine implements Closeable {
+	private final DictionarySnapshots snapshots;
+	private final Executor executor;
+	private final boolean ownsExecutor;
+	private ResultCache cache;
+	private final DictionarySnapshots.SwapListener invalidator = (old, replacement) -> {
+		ResultCache c = cache;
+		if (c != null)
+			c.retainVersion(replacement.version());
+	};
+
+	public AnagramEngine(AnagramDictionary dictionary) {
+		this(new DictionarySnapshots(dictionary));
+	}
+
+	/**
+	 * @param snapshots
+	 *            source of the dictionary; each search uses the dictionary
+	 *            current when it is submitted
+	 */
+	public AnagramEngine(DictionarySnapshots snapshots) {
+		this(snapshots, Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), (r) -> {
+			Thread t = new Thread(r, "anagram engine");
+			t.setDaemon(true);
+			return t;
+		}), true);
+	}
+
+	/**
+	 * @param dictionary
+	 * @param executor
+	 *            runs every search and every search task; it remains the
+	 *            caller's to shut down
+	 */
+	public AnagramEngine(AnagramDictionary dictionary, Executor executor) {
+		this(new DictionarySnapshots(dictionary), executor, false);
+	}
+
+	public AnagramEngine(DictionarySnapshots snapshots, Executor executor) {
+		this(snapshots, executor, false);
+	}
+
+	private AnagramEngine(DictionarySnapshots snapshots, Executor executor, boolean ownsExecutor) {
+		this.snapshots = snapshots;
+		this.executor = executor;
+		this.ownsExecutor = ownsExecutor;
+		snapshots.addListener(invalidator);
+	}
+
+	/**
+	 * @param cache
+	 *            memory of completed searches to consult before searching;
+	 *            null, the default, means searches are never skipped. The cache
+	 *            is purged of stale results whenever the dictionary is swapped.
+	 */
+	public void setResultCache(ResultCache cache) {
+		if (cache != null)
+			cache.retainVersion(snapshots.current().version());
+		this.cache = cache;
+	}
+
+	public ResultCache resultCache() {
+		return cache;
+	}
+
+	/**
+	 * @return the dictionary new searches will use
+	 */
+	public AnagramDictionary dictionary() {
+		return snapshots.current();
+	}
+
+	/**
+	 * @return the holder of the engine's dictionary, through which it may be
+	 *         reloaded or updated
+	 */
+	public DictionarySnapshots snapshots() {
+		return snapshots;
+	}
+
+	/**
+	 * Starts a search.
+	 * 
+	 * @param query
+	 * @param out
+	 *            receives the anagrams; it is flushed but not closed when the
+	 *            search is done
+	 * @return a handle by which the search may be cancelled or awaited
+	 */
+	public Search submit(AnagramQuery query, AnagramWriter out) {
+		final AnagramDictionary dictionary = snapshots.current();
+		final ResultCache cache = this.cache;
+		ResultCache.Key key = null;
+		if (cache != null) {
+			CharCount base = dictionary.trie().characterCount(query.phrase());
+			if (base != null) {
+				key = new ResultCache.Key(dictionary.version(), base, query);
+				ResultCache.Entry entry = cache.get(key);
+				if (entry != null && entry.encoded != null)
+					return replay(entry, out);
+				out = cache.new Recorder(out);
+			}
+		}
+		final AnagramStower stower;
+		if (query.sorted())
+			stower = new SortedUniqStower(out);
+		else if (query.unique())
+			stower = new UniqStower(out);
+		else
+			stower = new PassThroughStower(out);
+		final int limit = query.limit();
+		if (limit > 0)
+			stower.setTest(() -> stower.size() >= limit);
+		final TrieWalker walker = new TrieWalker(dictionary.trie(), stower, query.parallelism());
+		walker.setExecutor(executor);
+		walker.setTimeout(query.timeout());
+		if (key != null) {
+			final ResultCache.Key k = key;
+			final ResultCache.Recorder recorder = (ResultCache.Recorder) out;
+			walker.afterSearch = () -> {
+				Search search = walker.search();
+				if (search.phase() == Search.Phase.DONE && !search.isCancelled())
+					cache.put(k, recorder.entry());
+			};
+		}
+		Runnable stowerAction = () -> {
+		};
+		if (query.incremental())
+			return walker.incrementalAnagrams(query.phrase(), stowerAction);
+		return walker.anagrams(query.phrase(), stowerAction, false, false);
+	}
+
+	/**
+	 * Starts a drill-down session on a phrase, walking it on the engine's
+	 * executor. The session holds on to its own cache and to the dictionary
+	 * current when it was started.
+	 * 
+	 * @param phrase
+	 * @param parallelism
+	 *            maximum number of threads the session's walks may occupy
+	 * @return the session
+	 */
+	public AnagramSession session(String phrase, int parallelism) {
+		TrieWalker walker = new TrieWalker(snapshots.current().trie(), new PassThroughStower(new AnagramWriter(
+				AnagramFormat.TEXT) {
+			@Override
+			public void write(List<String> anagram) {
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		}), parallelism);
+		walker.setExecutor(executor);
+		return walker.session(phrase);
+	}
+
+	/**
+	 * Plays back a cached result set as though it were being found.
+	 * 
+	 * @param entry
+	 * @param out
+	 * @return a handle on the playback
+	 */
+	private Search replay(ResultCache.Entry entry, AnagramWriter out) {
+		final Search search = new Search(0);
+		search.cached(true);
+		search.start(() -> {
+			search.phase(Search.Phase.COLLECT);
+			for (List<String> anagram : entry.anagrams()) {
+				if (search.isCancelled())
+					break;
+				out.write(anagram);
+			}
+			out.flush();
+			search.anagrams(entry.count);
+			if (!search.isCancelled())
+				search.phase(Search.Phase.DONE);
+		}, executor);
+		return search;
+	}
+
+	/**
+	 * Counts the anagrams a query would produce, consulting the result cache
+	 * if there is one. The count of a result set too large for the cache to
+	 * hold in full is still remembered.
+	 * 
+	 * @param query
+	 * @return the number of anagrams
+	 */
+	public int count(AnagramQuery query) {
+		final ResultCache cache = this.cache;
+		if (cache != null) {
+			AnagramDictionary dictionary = snapshots.current();
+			CharCount base = dictionary.trie().characterCount(query.phrase());
+			if (base != null) {
+				ResultCache.Entry entry = cache.get(new ResultCache.Key(dictionary.version(), base, query));
+				if (entry != null)
+					return entry.count;
+			}
+		}
+		return submit(query, new AnagramWriter(AnagramFormat.TEXT) {
+			@Override
+			public void write(List<String> anagram) {
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		}).await().anagrams();
+	}
+
+	/**
+	 * Runs a search to completion.
+	 * 
+	 * @param query
+	 * @return the anagrams found
+	 */
+	public List<List<String>> anagrams(AnagramQuery query) {
+		final List<List<String>> anagrams = Collections.synchronizedList(new ArrayList<>());
+		submit(query, new AnagramWriter(AnagramFormat.TEXT) {
+			@Override
+			public void write(List<String> anagram) {
+				anagrams.add(anagram);
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		}).await();
+		return anagrams;
+	}
+
+	/**
+	 * Shuts down the executor if the engine made it.
+	 */
+	@Override
+	public void close() {
+		snapshots.removeListener(invalidator);
+		if (ownsExecutor)
+			((ExecutorService) executor).shutdown();
+	}
+}
@@ -0,0 +1,87 @@
+package dfh.anagrams;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * The ways an anagram may be written out.
+ * 
+ * @author houghton
+ *
+ */
+public enum AnagramFormat {
+	/**
+	 * words separated by spaces, one anagram per line
+	 */
+	TEXT {
+		@Override
+		byte[] encode(List<String> anagram) {
+			StringBuilder b = new StringBuilder();
+			int last = anagram.size() - 1;
+			for (int i = 0; i < anagram.size(); i++) {
+				b.append(anagram.get(i));
+				b.append(i == last ? '\n' : ' ');
+			}
+			return b.toString().getBytes(StandardCharsets.UTF_8);
+		}
+	},
+	/**
+	 * one JSON array of words per line
+	 */
+	NDJSON {
+		@Override
+		byte[] encode(List<String> anagram) {
+			StringBuilder b = new StringBuilder();
+			b.append('[');
+			for (int i = 0; i < anagram.size(); i++) {
+				if (i > 0)
+					b.append(',');
+				b.append('"');
+				String word = anagram.get(i);
+				for (int j = 0; j < word.length(); j++) {
+					char c = word.charAt(j);
+					if (c == '"' || c == '\\')
+						b.append('\\').append(c);
+					else if (c < 0x20)
+						b.append(String.format("\\u%04x", (int) c));
+					else
+						b.append(c);
+				}
+				b.append('"');
+			}
+			b.append("]\n");
+			return b.toString().getBytes(StandardCharsets.UTF_8);
+		}
+	},
+	/**
+	 * each anagram is a 4-byte big-endian length followed by that many bytes;
+	 * these are the words, each a 2-byte big-endian length followed by its
+	 * UTF-8 bytes
+	 */
+	BINARY {
+		@Override
+		byte[] encode(List<String> anagram) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			out.write(0);
+			out.write(0);
+			out.write(0);
+			out.write(0);
+			for (String word : anagram) {
+				byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+				out.write(bytes.length >>> 8);
+				out.write(bytes.length);
+				out.write(bytes, 0, bytes.length);
+			}
+			byte[] record = out.toByteArray();
+			int length = record.length - 4;
+			record[0] = (byte) (length >>> 24);
+			record[1] = (byte) (length >>> 16);
+			record[2] = (byte) (length >>> 8);
+			record[3] = (byte) length;
+			return record;
+		}
+	};
+
+	abstract byte[] encode(List<String> anagram);
+}
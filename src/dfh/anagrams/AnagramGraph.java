@@ -0,0 +1,492 @@
+package dfh.anagrams;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The cleaned partial evaluation graph of a phrase in a form which can be
+ * written out and read back. The number of anagrams of a phrase grows
+ * exponentially with its length but the graph which generates them does not,
+ * so writing the graph rather than the anagrams costs the size of the graph.
+ * The reader rebuilds the graph as a map from character counts to partial
+ * evaluations and uses {@link PathCounts} on it to count, page through, sample,
+ * or expand the anagrams. Pages and cursors agree with those of
+ * {@link TrieWalker#page(String, String, int, Runnable)} for the same
+ * dictionary and phrase.
+ * <p>
+ * The graph has three parts: a word table; the nodes, each a character count
+ * with node 0 the phrase; and for each node its edges, each a word index and a
+ * child node, or no child if the word completes an anagram. In the binary
+ * format, after the magic number and version, all numbers are unsigned
+ * varints:
+ *
+ * <pre>
+ * alphabet: length, then each character
+ * words: count, then each word as a length and UTF-8 bytes
+ * nodes: count, then for each node
+ *     blanks, number of characters counted, (character index, count)...,
+ *     number of edges, (word index, child node + 1 or 0 for none)...
+ * </pre>
+ *
+ * The JSON format has the same content:
+ *
+ * <pre>
+ * {"alphabet":"...","words":[...],"nodes":[{"letters":"...","blanks":0,"edges":[[word,child or -1],...]},...]}
+ * </pre>
+ *
+ * Only the binary format can be read back by this class.
+ *
+ * @author houghton
+ *
+ */
+public class AnagramGraph {
+	public enum Format {
+		BINARY, JSON
+	}
+
+	/**
+	 * "AGRF"
+	 */
+	private static final int MAGIC = 0x41475246;
+	private static final int VERSION = 1;
+
+	/**
+	 * the characters by index, starting from index 1
+	 */
+	private final String alphabet;
+	private final String[] words;
+	private final CharCount[] nodes;
+	/**
+	 * for each node, pairs of word index and child node, -1 for none
+	 */
+	private final int[][] edges;
+	private Map<CharCount, List<PartialEvaluation>> partials;
+	private PathCounts counts;
+
+	private AnagramGraph(String alphabet, String[] words, CharCount[] nodes, int[][] edges) {
+		this.alphabet = alphabet;
+		this.words = words;
+		this.nodes = nodes;
+		this.edges = edges;
+	}
+
+	/**
+	 * Extracts the part of a cleaned graph reachable from a character count.
+	 *
+	 * @param partials
+	 *            cleaned partial evaluation graph
+	 * @param base
+	 *            the count of the phrase; null if it cannot be spelled
+	 * @param trie
+	 *            the trie the graph was made with
+	 * @return the graph
+	 */
+	static AnagramGraph of(Map<CharCount, List<PartialEvaluation>> partials, CharCount base, Trie trie) {
+		if (base == null)
+			base = new CharCount(trie.cm.size());
+		StringBuilder alphabet = new StringBuilder();
+		for (int i = 1; i < trie.cm.size(); i++)
+			alphabet.append(trie.cm.intToChar(i));
+		Map<CharCount, Integer> nodeIds = new HashMap<>();
+		Map<String, Integer> wordIds = new HashMap<>();
+		List<CharCount> nodes = new ArrayList<>();
+		List<String> words = new ArrayList<>();
+		List<int[]> edges = new ArrayList<>();
+		nodeIds.put(base, 0);
+		nodes.add(base);
+		for (int n = 0; n < nodes.size(); n++) {
+			List<PartialEvaluation> list = partials.getOrDefault(nodes.get(n), Collections.emptyList());
+			int[] e = new int[list.size() * 2];
+			int i = 0;
+			for (PartialEvaluation pe : list) {
+				String word = pe.translate(trie);
+				Integer w = wordIds.get(word);
+				if (w == null) {
+					wordIds.put(word, w = words.size());
+					words.add(word);
+				}
+				int child = -1;
+				if (!pe.done()) {
+					Integer c = nodeIds.get(pe.cc);
+					if (c == null) {
+						nodeIds.put(pe.cc, c = nodes.size());
+						nodes.add(pe.cc);
+					}
+					child = c;
+				}
+				e[i++] = w;
+				e[i++] = child;
+			}
+			edges.add(e);
+		}
+		return new AnagramGraph(alphabet.toString(), words.toArray(new String[words.size()]),
+				nodes.toArray(new CharCount[nodes.size()]), edges.toArray(new int[edges.size()][]));
+	}
+
+	/**
+	 * @param out
+	 *            receives the graph; it is flushed but not closed
+	 * @param format
+	 * @throws IOException
+	 */
+	public void write(OutputStream out, Format format) throws IOException {
+		if (format == Format.JSON)
+			writeJson(out);
+		else
+			writeBinary(out);
+	}
+
+	private void writeBinary(OutputStream os) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		varint(out, alphabet.length());
+		for (int i = 0; i < alphabet.length(); i++)
+			varint(out, alphabet.charAt(i));
+		varint(out, words.length);
+		for (String w : words) {
+			byte[] bytes = w.getBytes(StandardCharsets.UTF_8);
+			varint(out, bytes.length);
+			out.write(bytes);
+		}
+		varint(out, nodes.length);
+		for (int n = 0; n < nodes.length; n++) {
+			CharCount cc = nodes[n];
+			varint(out, cc.blanks);
+			varint(out, cc.charSet().length);
+			for (int c : cc.charSet()) {
+				varint(out, c);
+				varint(out, cc.counts[c]);
+			}
+			int[] e = edges[n];
+			varint(out, e.length / 2);
+			for (int i = 0; i < e.length; i += 2) {
+				varint(out, e[i]);
+				varint(out, e[i + 1] + 1);
+			}
+		}
+		out.flush();
+	}
+
+	private void writeJson(OutputStream os) throws IOException {
+		Writer out = new OutputStreamWriter(new BufferedOutputStream(os, 1 << 16), StandardCharsets.UTF_8);
+		out.write("{\"alphabet\":");
+		out.write(quote(alphabet));
+		out.write(",\"words\":[");
+		for (int i = 0; i < words.length; i++) {
+			if (i > 0)
+				out.write(',');
+			out.write(quote(words[i]));
+		}
+		out.write("],\"nodes\":[");
+		for (int n = 0; n < nodes.length; n++) {
+			if (n > 0)
+				out.write(",\n");
+			CharCount cc = nodes[n];
+			StringBuilder letters = new StringBuilder();
+			for (int c : cc.charSet()) {
+				for (int i = 0; i < cc.counts[c]; i++)
+					letters.append(alphabet.charAt(c - 1));
+			}
+			out.write("{\"letters\":");
+			out.write(quote(letters.toString()));
+			out.write(",\"blanks\":" + cc.blanks + ",\"edges\":[");
+			int[] e = edges[n];
+			for (int i = 0; i < e.length; i += 2) {
+				if (i > 0)
+					out.write(',');
+				out.write("[" + e[i] + "," + e[i + 1] + "]");
+			}
+			out.write("]}");
+		}
+		out.write("]}\n");
+		out.flush();
+	}
+
+	private static String quote(String s) {
+		StringBuilder b = new StringBuilder(s.length() + 2).append('"');
+		for (char c : s.toCharArray()) {
+			if (c == '"' || c == '\\')
+				b.append('\\').append(c);
+			else if (c < 0x20)
+				b.append(String.format("\\u%04x", (int) c));
+			else
+				b.append(c);
+		}
+		return b.append('"').toString();
+	}
+
+	/**
+	 * Reads a graph in the binary format.
+	 *
+	 * @param in
+	 * @return the graph
+	 * @throws IOException
+	 *             if the stream cannot be read or does not hold a graph
+	 */
+	public static AnagramGraph read(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+		if (data.readInt() != MAGIC)
+			throw new IOException("not an anagram graph");
+		int version = data.readInt();
+		if (version != VERSION)
+			throw new IOException("unknown anagram graph version " + version);
+		StringBuilder alphabet = new StringBuilder();
+		for (int i = varint(data); i > 0; i--)
+			alphabet.append((char) varint(data));
+		String[] words = new String[varint(data)];
+		for (int i = 0; i < words.length; i++) {
+			byte[] bytes = new byte[varint(data)];
+			data.readFully(bytes);
+			words[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+		CharCount[] nodes = new CharCount[varint(data)];
+		int[][] edges = new int[nodes.length][];
+		for (int n = 0; n < nodes.length; n++) {
+			CharCount cc = new CharCount(alphabet.length() + 1);
+			cc.blanks = varint(data);
+			cc.total = cc.blanks;
+			for (int i = varint(data); i > 0; i--) {
+				int c = varint(data), count = varint(data);
+				if (c < 1 || c > alphabet.length())
+					throw new IOException("character index out of range: " + c);
+				cc.counts[c] = count;
+				cc.total += count;
+			}
+			nodes[n] = cc;
+			int[] e = new int[varint(data) * 2];
+			for (int i = 0; i < e.length; i += 2) {
+				e[i] = varint(data);
+				e[i + 1] = varint(data) - 1;
+				if (e[i] >= words.length || e[i + 1] >= nodes.length)
+					throw new IOException("edge out of range in node " + n);
+			}
+			edges[n] = e;
+		}
+		if (nodes.length == 0)
+			throw new IOException("anagram graph has no nodes");
+		return new AnagramGraph(alphabet.toString(), words, nodes, edges);
+	}
+
+	private static void varint(DataOutputStream out, int i) throws IOException {
+		while ((i & ~0x7F) != 0) {
+			out.writeByte((i & 0x7F) | 0x80);
+			i >>>= 7;
+		}
+		out.writeByte(i);
+	}
+
+	private static int varint(DataInputStream in) throws IOException {
+		int i = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.readUnsignedByte();
+			i |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return i;
+		}
+		throw new IOException("malformed varint");
+	}
+
+	/**
+	 * @return the graph as a map from character counts to the partial
+	 *         evaluations extractable from them, as the search caches it
+	 */
+	public synchronized Map<CharCount, List<PartialEvaluation>> partials() {
+		if (partials == null) {
+			CharCount empty = new CharCount(alphabet.length() + 1);
+			Map<CharCount, List<PartialEvaluation>> map = new HashMap<>(nodes.length * 2);
+			for (int n = 0; n < nodes.length; n++) {
+				int[] e = edges[n];
+				List<PartialEvaluation> list = new ArrayList<>(e.length / 2);
+				for (int i = 0; i < e.length; i += 2) {
+					PartialEvaluation pe = new PartialEvaluation(new int[0], e[i + 1] < 0 ? empty : nodes[e[i + 1]]);
+					pe.w = words[e[i]];
+					list.add(pe);
+				}
+				if (!list.isEmpty())
+					map.put(nodes[n], list);
+			}
+			partials = Collections.unmodifiableMap(map);
+		}
+		return partials;
+	}
+
+	private synchronized PathCounts counts() {
+		if (counts == null)
+			counts = new PathCounts(partials(), (pe) -> pe.w);
+		return counts;
+	}
+
+	/**
+	 * @return the number of distinct anagrams the graph generates
+	 */
+	public BigInteger count() {
+		return counts().count(nodes[0]);
+	}
+
+	/**
+	 * @return number of character counts in the graph
+	 */
+	public int nodes() {
+		return nodes.length;
+	}
+
+	/**
+	 * @return number of partial evaluations in the graph
+	 */
+	public int edges() {
+		int n = 0;
+		for (int[] e : edges)
+			n += e.length / 2;
+		return n;
+	}
+
+	/**
+	 * @return number of distinct words in the graph
+	 */
+	public int words() {
+		return words.length;
+	}
+
+	/**
+	 * @param offset
+	 *            rank of the first anagram
+	 * @param size
+	 *            maximum number of anagrams
+	 * @return the anagrams, each a sorted list of words, in rank order
+	 * @throws IllegalArgumentException
+	 *             if the offset is negative
+	 */
+	public synchronized List<List<String>> page(BigInteger offset, int size) {
+		if (offset.signum() < 0)
+			throw new IllegalArgumentException("negative offset: " + offset);
+		PathCounts pc = counts();
+		BigInteger total = count();
+		List<List<String>> page = new ArrayList<>();
+		for (BigInteger rank = offset; page.size() < size && rank.compareTo(total) < 0; rank = rank
+				.add(BigInteger.ONE))
+			page.add(words(pc.path(nodes[0], rank)));
+		return page;
+	}
+
+	/**
+	 * @param rank
+	 * @return a cursor for the anagram of the given rank, or null if there is
+	 *         none
+	 */
+	public synchronized String cursor(BigInteger rank) {
+		if (rank.signum() < 0 || rank.compareTo(count()) >= 0)
+			return null;
+		return Cursor.encode(counts().indices(nodes[0], rank));
+	}
+
+	/**
+	 * @param cursor
+	 * @return the rank of the anagram the cursor marks
+	 * @throws IllegalArgumentException
+	 *             if the cursor is malformed or marks no anagram of this graph
+	 */
+	public synchronized BigInteger rank(String cursor) {
+		BigInteger rank = counts().rank(nodes[0], Cursor.decode(cursor));
+		if (rank == null)
+			throw new IllegalArgumentException("cursor does not mark an anagram of this graph: " + cursor);
+		return rank;
+	}
+
+	/**
+	 * @param n
+	 *            number of anagrams
+	 * @param random
+	 * @param distinct
+	 *            whether to sample without replacement
+	 * @return anagrams drawn uniformly at random
+	 */
+	public synchronized List<List<String>> sample(int n, Random random, boolean distinct) {
+		PathCounts pc = counts();
+		BigInteger total = count();
+		List<List<String>> sample = new ArrayList<>(n);
+		if (total.signum() == 0)
+			return sample;
+		if (distinct) {
+			for (BigInteger rank : PathCounts.distinct(total, n, random))
+				sample.add(words(pc.path(nodes[0], rank)));
+		} else {
+			for (int i = 0; i < n; i++)
+				sample.add(words(pc.path(nodes[0], PathCounts.uniform(total, random))));
+		}
+		return sample;
+	}
+
+	/**
+	 * Writes every anagram the graph generates once, in rank order, following
+	 * only canonical paths.
+	 *
+	 * @param out
+	 */
+	public void expand(AnagramWriter out) {
+		PathCounts.Node root;
+		synchronized (this) {
+			root = counts().node(nodes[0]);
+		}
+		if (root != null) {
+			Deque<PathCounts.Node> stack = new ArrayDeque<>();
+			Deque<int[]> next = new ArrayDeque<>();
+			List<String> path = new ArrayList<>();
+			// each frame is a node and the index of its next edge
+			stack.push(root);
+			next.push(new int[] { 0 });
+			while (!stack.isEmpty()) {
+				PathCounts.Node n = stack.peek();
+				int[] i = next.peek();
+				if (i[0] == n.edges.length) {
+					stack.pop();
+					next.pop();
+					if (!path.isEmpty())
+						path.remove(path.size() - 1);
+					continue;
+				}
+				int j = i[0]++;
+				if (n.count(j).signum() == 0)
+					continue;
+				PartialEvaluation pe = n.edges[j];
+				if (pe.done()) {
+					List<String> anagram = new ArrayList<>(path.size() + 1);
+					anagram.addAll(path);
+					anagram.add(pe.w);
+					anagram.sort(null);
+					out.write(anagram);
+				} else {
+					path.add(pe.w);
+					stack.push(n.children[j]);
+					next.push(new int[] { 0 });
+				}
+			}
+		}
+		out.flush();
+	}
+
+	private static List<String> words(List<PartialEvaluation> path) {
+		List<String> words = new ArrayList<>(path.size());
+		for (PartialEvaluation pe : path)
+			words.add(pe.w);
+		words.sort(null);
+		return words;
+	}
+}
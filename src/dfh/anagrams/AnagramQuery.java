@@ -0,0 +1,109 @@
+package dfh.anagrams;
+
+/**
+ * The parameters of a single search submitted to an {@link AnagramEngine}. The
+ * engine reads these when the query is submitted, so a query object may be
+ * reused or modified afterwards without affecting searches in flight.
+ * 
+ * @author houghton
+ *
+ */
+public class AnagramQuery {
+	private final String phrase;
+	private boolean unique = false, sorted = false, incremental = false;
+	private int limit = 0, parallelism = Runtime.getRuntime().availableProcessors();
+	private long timeout = 0;
+
+	public AnagramQuery(String phrase) {
+		this.phrase = phrase;
+	}
+
+	public String phrase() {
+		return phrase;
+	}
+
+	/**
+	 * @param unique
+	 *            whether to return only unique anagrams
+	 * @return this query
+	 */
+	public AnagramQuery unique(boolean unique) {
+		this.unique = unique;
+		return this;
+	}
+
+	public boolean unique() {
+		return unique;
+	}
+
+	/**
+	 * @param sorted
+	 *            whether to return a sorted list of unique anagrams
+	 * @return this query
+	 */
+	public AnagramQuery sorted(boolean sorted) {
+		this.sorted = sorted;
+		return this;
+	}
+
+	public boolean sorted() {
+		return sorted;
+	}
+
+	/**
+	 * @param incremental
+	 *            whether to search depth-first, so the first results arrive
+	 *            quickly
+	 * @return this query
+	 */
+	public AnagramQuery incremental(boolean incremental) {
+		this.incremental = incremental;
+		return this;
+	}
+
+	public boolean incremental() {
+		return incremental;
+	}
+
+	/**
+	 * @param limit
+	 *            maximum number of anagrams; 0 means there is no limit
+	 * @return this query
+	 */
+	public AnagramQuery limit(int limit) {
+		this.limit = limit;
+		return this;
+	}
+
+	public int limit() {
+		return limit;
+	}
+
+	/**
+	 * @param parallelism
+	 *            maximum number of threads the search may occupy at once
+	 * @return this query
+	 */
+	public AnagramQuery parallelism(int parallelism) {
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	public int parallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * @param timeout
+	 *            milliseconds the search may run; 0 means there is no deadline
+	 * @return this query
+	 */
+	public AnagramQuery timeout(long timeout) {
+		this.timeout = timeout;
+		return this;
+	}
+
+	public long timeout() {
+		return timeout;
+	}
+}
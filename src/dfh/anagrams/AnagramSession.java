@@ -0,0 +1,171 @@
+package dfh.anagrams;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An interactive exploration of the anagrams of one phrase. The user picks
+ * words one at a time; after each pick the session offers the words that may
+ * come next, each with the number of anagrams it leads to, and the anagrams of
+ * what remains. All of this is read from the cleaned partial evaluation graph,
+ * which the session keeps, so a refinement costs a lookup rather than a
+ * search. The graph holds the anagrams of every remainder it passes through; a
+ * remainder it does not hold, because the prefix was chosen in an order the
+ * graph did not take, is walked once and added to it.
+ * <p>
+ * The words offered at each step are those which use the remainder's pivot
+ * character, the least often available character, so every anagram of the
+ * remainder contains at least one of them. An anagram with several such words
+ * is counted under the least of them only, so the options' counts partition
+ * the anagrams of the remainder and sum to {@link #count(List)}. Words which
+ * are not offered may still be added to the prefix, which is treated as a bag
+ * of words, not a sequence. Sessions are safe to share between threads.
+ * 
+ * @author houghton
+ *
+ */
+public class AnagramSession {
+	/**
+	 * A word which may be added to the prefix.
+	 */
+	public static class Option {
+		private final String word;
+		private final BigInteger completions;
+
+		Option(String word, BigInteger completions) {
+			this.word = word;
+			this.completions = completions;
+		}
+
+		public String word() {
+			return word;
+		}
+
+		/**
+		 * @return number of anagrams of the remainder in which this is the least
+		 *         word using the pivot character
+		 */
+		public BigInteger completions() {
+			return completions;
+		}
+
+		@Override
+		public String toString() {
+			return word + " (" + completions + ")";
+		}
+	}
+
+	private final TrieWalker walker;
+	private final Trie trie;
+	/**
+	 * the phrase's character count; null if it cannot be spelled with the
+	 * dictionary's characters
+	 */
+	private final CharCount base;
+	private final PathCounts counts;
+
+	AnagramSession(TrieWalker walker, CharCount base) {
+		this.walker = walker;
+		this.trie = walker.trie();
+		this.base = base;
+		this.counts = new PathCounts(walker.partials(), (pe) -> pe.translate(walker.trie()));
+	}
+
+	/**
+	 * @param prefix
+	 *            words already chosen
+	 * @return the words that may come next with their completion counts, most
+	 *         productive first
+	 * @throws IllegalArgumentException
+	 *             if a word of the prefix is not in the dictionary or does not
+	 *             fit in the phrase
+	 */
+	public synchronized List<Option> options(List<String> prefix) {
+		CharCount remainder = remainder(prefix);
+		if (remainder == null || remainder.done())
+			return Collections.emptyList();
+		PathCounts.Node node = counts.node(remainder);
+		if (node == null)
+			return Collections.emptyList();
+		List<Option> options = new ArrayList<>(node.edges.length);
+		for (int i = 0; i < node.edges.length; i++) {
+			PartialEvaluation pe = node.edges[i];
+			options.add(new Option(pe.translate(trie), node.count(i)));
+		}
+		options.sort((a, b) -> {
+			int c = b.completions.compareTo(a.completions);
+			return c == 0 ? a.word.compareTo(b.word) : c;
+		});
+		return options;
+	}
+
+	/**
+	 * @param prefix
+	 *            words already chosen
+	 * @return the number of anagrams of the phrase containing the prefix; 1 if
+	 *         the prefix is itself an anagram
+	 * @throws IllegalArgumentException
+	 *             if a word of the prefix is not in the dictionary or does not
+	 *             fit in the phrase
+	 */
+	public synchronized BigInteger count(List<String> prefix) {
+		CharCount remainder = remainder(prefix);
+		if (remainder == null)
+			return BigInteger.ZERO;
+		return remainder.done() ? BigInteger.ONE : counts.count(remainder);
+	}
+
+	/**
+	 * @param prefix
+	 *            words already chosen
+	 * @param offset
+	 *            number of anagrams to skip
+	 * @param limit
+	 *            maximum number of anagrams to return
+	 * @return distinct anagrams of what remains of the phrase once the prefix
+	 *         is removed, each a sorted list of words, in a repeatable order
+	 * @throws IllegalArgumentException
+	 *             if the offset is negative, or if a word of the prefix is not
+	 *             in the dictionary or does not fit in the phrase
+	 */
+	public synchronized List<List<String>> anagrams(List<String> prefix, long offset, int limit) {
+		if (offset < 0)
+			throw new IllegalArgumentException("negative offset: " + offset);
+		CharCount remainder = remainder(prefix);
+		if (remainder == null || remainder.done())
+			return Collections.emptyList();
+		BigInteger total = counts.count(remainder), rank = BigInteger.valueOf(offset);
+		List<List<String>> anagrams = new ArrayList<>();
+		for (int i = 0; i < limit && rank.compareTo(total) < 0; i++, rank = rank.add(BigInteger.ONE))
+			anagrams.add(walker.words(counts.path(remainder, rank)));
+		return anagrams;
+	}
+
+	/**
+	 * Removes the prefix from the phrase and makes sure the graph below what
+	 * remains is cached.
+	 * 
+	 * @param prefix
+	 * @return the remainder, or null if the phrase has no anagrams or the walk
+	 *         was cancelled
+	 */
+	private CharCount remainder(List<String> prefix) {
+		if (base == null)
+			return null;
+		CharCount remainder = base;
+		for (String word : prefix) {
+			// the walker's trie may have only the words which fit the phrase
+			CharCount cc = trie.characterCount(word);
+			if (cc == null || !remainder.contains(cc))
+				throw new IllegalArgumentException("does not fit in what remains of the phrase: " + word);
+			if (!trie.contains(word))
+				throw new IllegalArgumentException("not in the dictionary: " + word);
+			remainder = remainder.minus(cc);
+		}
+		if (remainder.done())
+			return remainder;
+		return walker.cache(remainder) ? remainder : null;
+	}
+}
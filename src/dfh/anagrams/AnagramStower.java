@@ -4,10 +4,14 @@ import java.io.PrintStream;
 import java.util.List;
 
 abstract class AnagramStower {
-	PrintStream out;
+	AnagramWriter out;
 	protected Test test = () -> false;
 
 	public AnagramStower(PrintStream out) {
+		this(new StreamAnagramWriter(out));
+	}
+
+	public AnagramStower(AnagramWriter out) {
 		this.out = out;
 	}
 
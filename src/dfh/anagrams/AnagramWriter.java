@@ -0,0 +1,36 @@
+package dfh.anagrams;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Where a stower sends the anagrams it keeps.
+ * 
+ * @author houghton
+ *
+ */
+public abstract class AnagramWriter implements Closeable {
+	protected final AnagramFormat format;
+
+	protected AnagramWriter(AnagramFormat format) {
+		this.format = format;
+	}
+
+	/**
+	 * @param anagram
+	 *            the words of an anagram; the writer may hold on to this list
+	 */
+	public abstract void write(List<String> anagram);
+
+	/**
+	 * Pushes out anything buffered.
+	 */
+	public abstract void flush();
+
+	/**
+	 * Writes out everything outstanding and releases the underlying resources.
+	 */
+	@Override
+	public abstract void close() throws IOException;
+}
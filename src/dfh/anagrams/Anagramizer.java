@@ -1,17 +1,14 @@
 package dfh.anagrams;
 
-import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.PrintStream;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
 
 import dfh.cli.Cli;
 import dfh.cli.coercions.FileCoercion;
@@ -19,7 +16,6 @@ import dfh.cli.rules.IntSet;
 import dfh.cli.rules.Range;
 
 public class Anagramizer {
-	static PrintStream out = System.out;
 
 	public static void main(String[] args) {
 		Object[][][] spec = {
@@ -30,6 +26,8 @@ public class Anagramizer {
 				{ { Cli.Opt.VERSION, "0.0.1" } }, //
 				{ { "dictionary", 'd', FileCoercion.C }, { "word list; one word per line" }, { Cli.Res.REQUIRED } }, //
 				{ { "out", 'o', FileCoercion.C }, { "file for output" } }, //
+				{ { "format", String.class, "text" }, { "output format: text, ndjson, or binary" } }, //
+				{ { "gzip", 'z' }, { "compress the output with gzip" } }, //
 				{ { "verbose", 'v' }, { "provide progress information" } }, //
 				{ { "time", 't' }, { "if verbose, time operations" } }, //
 				{ { "uniq", 'u' }, { "return unique anagrams" } }, //
@@ -37,7 +35,32 @@ public class Anagramizer {
 				{ { "shuffle", Integer.class, 0 },
 						{ "shuffle generation order; useful with --limit; 0 = no shuffling; 1 = shuffle some; 2 = shuffle always" },
 						{ new IntSet(0, 1, 2) } }, //
+				{ { "incremental", 'i' },
+						{ "search depth-first, emitting anagrams as they are found; the first results arrive quickly" } }, //
+				{ { "sample", Integer.class }, { "draw this many anagrams uniformly at random" }, { Range.positive() } }, //
+				{ { "seed", Integer.class }, { "seed for --sample; samples with the same seed are the same" } }, //
+				{ { "distinct" }, { "with --sample, sample without replacement" } }, //
+				{ { "page", Integer.class }, { "return a page of at most this many anagrams in a repeatable order" },
+						{ Range.positive() } }, //
+				{ { "cursor", String.class }, { "with --page, cursor printed by the previous page" } }, //
+				{ { "offset", Integer.class, 0 }, { "with --page, number of anagrams to skip" },
+						{ Range.nonNegative() } }, //
 				{ { "limit", 'l', 'n', Integer.class }, { "return at most this many anagrams" }, { Range.positive() } }, //
+				{ { "subwords" },
+						{ "instead of anagrams, list the words which can be made from some of the letters, longest first" } }, //
+				{ { "min-length", Integer.class, 1 }, { "with --subwords, the shortest word to list" } }, //
+				{ { "max-length", Integer.class }, { "with --subwords, the longest word to list" },
+						{ Range.positive() } }, //
+				{ { "graph", String.class },
+						{ "instead of anagrams, write the graph which generates them: binary or json; see GraphTool" } }, //
+				{ { "max-memory", Integer.class },
+						{ "megabytes the cache may use; beyond this, fall back to a slower search which caches less; "
+								+ "not with --page, --sample, or --graph" },
+						{ Range.positive() } }, //
+				{ { "off-heap" }, { "keep the partial evaluation graph outside the Java heap" } }, //
+				{ { "timeout", Integer.class }, { "stop searching after this many seconds" }, { Range.positive() } }, //
+				{ { "workers", Integer.class }, { "spread the search over this many worker processes" },
+						{ Range.positive() } }, //
 				{ { "threads", Integer.class, Runtime.getRuntime().availableProcessors() + 1 },
 						{ "maximum number of threads" }, { Range.positive() } },//
 		};
@@ -49,15 +72,53 @@ public class Anagramizer {
 		if (!(dictionary.exists() && dictionary.isFile())) {
 			cli.die("The provided dictionary, " + dictionary + ", does not appear to be a word list.");
 		}
-		if (outFile != null) {
-			try {
-				out = new PrintStream(new BufferedOutputStream(new FileOutputStream(outFile)), true);
-			} catch (FileNotFoundException e) {
-				cli.die("could not write to " + outFile);
+		AnagramFormat format = null;
+		for (AnagramFormat f : AnagramFormat.values()) {
+			if (f.name().equalsIgnoreCase(cli.string("format")))
+				format = f;
+		}
+		if (format == null) {
+			cli.die("unknown output format: " + cli.string("format"));
+		}
+		if (cli.integer("max-memory") != null
+				&& (cli.integer("page") != null || cli.integer("sample") != null || cli.string("graph") != null)) {
+			cli.die("--page, --sample, and --graph need the whole graph and have no fallback under --max-memory");
+		}
+		AnagramGraph.Format graphFormat = null;
+		if (cli.string("graph") != null) {
+			for (AnagramGraph.Format f : AnagramGraph.Format.values()) {
+				if (f.name().equalsIgnoreCase(cli.string("graph")))
+					graphFormat = f;
+			}
+			if (graphFormat == null) {
+				cli.die("unknown graph format: " + cli.string("graph"));
 			}
 		}
 		final boolean verbose = cli.bool("verbose"), timeOperations = cli.bool("time");
-		StringNormalizer normalizer = (word) -> word.replaceAll("[^\\p{L}\\p{Nd}]+", "").toLowerCase();
+		AnagramWriter out = null;
+		OutputStream graphOut = null;
+		try {
+			if (graphFormat != null) {
+				graphOut = outFile == null ? new FileOutputStream(FileDescriptor.out) : new FileOutputStream(outFile);
+				if (cli.bool("gzip"))
+					graphOut = new GZIPOutputStream(graphOut, 1 << 16);
+				out = new StreamAnagramWriter(OutputStream.nullOutputStream(), format);
+			} else if (outFile != null) {
+				out = AsyncAnagramWriter.open(outFile, format, cli.bool("gzip"));
+			} else if (!verbose) {
+				// progress messages would be interleaved with buffered output,
+				// so only a quiet search writes standard out on its own thread
+				out = AsyncAnagramWriter.open(new FileOutputStream(FileDescriptor.out), format, cli.bool("gzip"));
+			} else if (cli.bool("gzip")) {
+				out = new StreamAnagramWriter(new GZIPOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16),
+						format);
+			} else {
+				out = new StreamAnagramWriter(System.out, format);
+			}
+		} catch (IOException e) {
+			cli.die("could not write to " + (outFile == null ? "standard out" : outFile));
+		}
+		StringNormalizer normalizer = StringNormalizer.DEFAULT;
 		StringBuffer buffer = new StringBuffer();
 		for (String s : cli.slurpedArguments()) {
 			buffer.append(s).append(' ');
@@ -71,31 +132,13 @@ public class Anagramizer {
 			}
 			System.out.println("reading dictionary...");
 		}
-		Trie trie;
-		{ // construction scope for temporary data structures
-			Map<Character, int[]> frequencyMap = new TreeMap<>();
-			List<String> words = new LinkedList<>();
-			try (BufferedReader br = new BufferedReader(new FileReader(dictionary))) {
-				for (String line; (line = br.readLine()) != null;) {
-					String word = normalizer.normalize(line);
-					words.add(word);
-					for (char c : word.toCharArray()) {
-						int[] counts = frequencyMap.get(c);
-						if (counts == null)
-							frequencyMap.put(c, counts = new int[] { 0 });
-						counts[0]++;
-					}
-				}
-			} catch (FileNotFoundException e) {
-				cli.die("could not find " + dictionary);
-			} catch (IOException e) {
-				cli.die("IO exception while reading " + dictionary);
-			}
-			CharMap cm = new CharMap(frequencyMap);
-			trie = new Trie(normalizer, cm);
-			for (String word : words)
-				trie.addWord(word);
-			trie.freeze();
+		Trie trie = null;
+		try {
+			trie = Trie.load(dictionary, normalizer);
+		} catch (FileNotFoundException e) {
+			cli.die("could not find " + dictionary);
+		} catch (IOException e) {
+			cli.die("IO exception while reading " + dictionary);
 		}
 
 		if (verbose) {
@@ -110,6 +153,19 @@ public class Anagramizer {
 			}
 		}
 		trie.freeze();
+		if (cli.bool("subwords")) {
+			int min = cli.integer("min-length"),
+					max = cli.integer("max-length") == null ? Integer.MAX_VALUE : cli.integer("max-length");
+			for (String word : limit == null ? trie.subwords(phrase, min, max)
+					: trie.topSubwords(phrase, min, max, limit, null))
+				out.write(Collections.singletonList(word));
+			try {
+				out.close();
+			} catch (IOException e) {
+				System.err.println("error writing words: " + e.getMessage());
+			}
+			return;
+		}
 		AnagramStower stower;
 		Runnable stowerAction;
 		if (cli.bool("sort")) {
@@ -134,6 +190,13 @@ public class Anagramizer {
 		if (limit != null)
 			stower.setTest(() -> stower.size() >= limit);
 		TrieWalker walker = new TrieWalker(trie, stower, threads);
+		walker.setOffHeap(cli.bool("off-heap"));
+		Integer maxMemory = cli.integer("max-memory");
+		if (maxMemory != null)
+			walker.setMemoryBudget(maxMemory * (1L << 20));
+		Integer timeout = cli.integer("timeout");
+		if (timeout != null)
+			walker.setTimeout(timeout * 1000L);
 		if (verbose) {
 			walker.beforeWalk = () -> {
 				System.out.println("collecting all necessary partial evaluations...");
@@ -167,8 +230,74 @@ public class Anagramizer {
 				System.out.printf("initial branches: %,d; final branches: %,d; removed: %,d; character counts removed: %,d\n", a, b, a-b, c);
 			};
 		}
-		boolean shuffle = cli.integer("shuffle") > 0, shuffleWell = cli.integer("shuffle") == 2;
-		walker.anagrams(phrase, stowerAction, shuffle, shuffleWell);
+		Integer workers = cli.integer("workers");
+		if (workers != null) {
+			ShardCoordinator coordinator = new ShardCoordinator(dictionary, phrase, workers, threads, stower);
+			if (timeout != null)
+				coordinator.setTimeout(timeout * 1000L);
+			coordinator.run(walker.roots(phrase).size(), stowerAction);
+			if (!coordinator.failedShards().isEmpty())
+				System.err.println("workers failed on shards " + coordinator.failedShards());
+			try {
+				out.close();
+			} catch (IOException e) {
+				System.err.println("error writing anagrams: " + e.getMessage());
+			}
+			return;
+		}
+		Search search;
+		Integer sample = cli.integer("sample"), seed = cli.integer("seed"), page = cli.integer("page");
+		if (graphFormat != null) {
+			search = walker.graph(phrase, graphOut, graphFormat);
+		} else if (page != null) {
+			String cursor = cli.string("cursor");
+			try {
+				if (cursor != null)
+					search = walker.page(phrase, cursor, page, stowerAction);
+				else
+					search = walker.page(phrase, cli.integer("offset"), page, stowerAction);
+			} catch (IllegalArgumentException e) {
+				cli.die(e.getMessage());
+				return;
+			}
+		} else if (sample != null) {
+			Random random = seed == null ? new Random() : new Random(seed);
+			search = walker.sample(phrase, sample, random, cli.bool("distinct"), stowerAction);
+		} else if (cli.bool("incremental")) {
+			search = walker.incrementalAnagrams(phrase, stowerAction);
+		} else {
+			boolean shuffle = cli.integer("shuffle") > 0, shuffleWell = cli.integer("shuffle") == 2;
+			search = walker.anagrams(phrase, stowerAction, shuffle, shuffleWell);
+		}
+		try {
+			search.await();
+		} catch (IllegalArgumentException e) {
+			cli.die(e.getMessage());
+		}
+		try {
+			out.close();
+			if (graphOut != null)
+				graphOut.close();
+		} catch (IOException e) {
+			System.err.println("error writing anagrams: " + e.getMessage());
+		}
+		if (graphFormat == null && page != null) {
+			if (search.cursor() == null)
+				System.err.println("no more anagrams");
+			else
+				System.err.println("next cursor: " + search.cursor());
+		}
+		if (verbose) {
+			System.out.printf("strategy: %s (%s)\n", search.strategy().toString().toLowerCase().replace('_', ' '),
+					search.strategyReason());
+		} else if (search.strategy() == Search.Strategy.BOUNDED_CACHE) {
+			System.err.println("used a bounded cache: " + search.strategyReason());
+		}
+		if (search.timedOut()) {
+			System.err.printf("timed out after %,d %s during %s phase; %,d %s found\n", search.elapsed(),
+					inflect("millisecond", search.elapsed()), search.phase().toString().toLowerCase(),
+					search.anagrams(), inflect("anagram", search.anagrams()));
+		}
 	}
 
 	private static void reportTiming(long time) {
@@ -0,0 +1,190 @@
+package dfh.anagrams;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes anagrams on a dedicated thread. The search threads only enqueue
+ * anagrams; encoding, compression and IO all happen on the writer thread,
+ * which accumulates output in a large direct buffer and hands it to the
+ * channel in big blocks. The queue is bounded, so a writer that cannot keep up
+ * slows the search rather than exhausting memory.
+ * 
+ * @author houghton
+ *
+ */
+public class AsyncAnagramWriter extends AnagramWriter {
+	private static final int QUEUE_SIZE = 1 << 14, BUFFER_SIZE = 1 << 20;
+	// markers compared by identity
+	private static final List<String> FLUSH = new ArrayList<>(0), END = new ArrayList<>(0);
+	private final BlockingQueue<List<String>> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final WritableByteChannel channel;
+	private final Thread thread;
+	private volatile IOException failure;
+	private boolean closed = false;
+
+	public AsyncAnagramWriter(WritableByteChannel channel, AnagramFormat format) {
+		super(format);
+		this.channel = channel;
+		thread = new Thread(this::drain, "anagram writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @param file
+	 *            destination
+	 * @param format
+	 * @param gzip
+	 *            whether to compress the output
+	 * @return a writer to the file
+	 * @throws IOException
+	 */
+	public static AsyncAnagramWriter open(File file, AnagramFormat format, boolean gzip) throws IOException {
+		WritableByteChannel channel;
+		if (gzip) {
+			channel = Channels.newChannel(new GZIPOutputStream(new FileOutputStream(file), 1 << 16));
+		} else {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+		}
+		return new AsyncAnagramWriter(channel, format);
+	}
+
+	/**
+	 * @param out
+	 *            destination, such as a stream on standard out; it should not
+	 *            flush itself, and it is closed when the writer is
+	 * @param format
+	 * @param gzip
+	 *            whether to compress the output
+	 * @return a writer to the stream
+	 * @throws IOException
+	 */
+	public static AsyncAnagramWriter open(OutputStream out, AnagramFormat format, boolean gzip) throws IOException {
+		return new AsyncAnagramWriter(Channels.newChannel(gzip ? new GZIPOutputStream(out, 1 << 16) : out), format);
+	}
+
+	@Override
+	public void write(List<String> anagram) {
+		enqueue(anagram);
+	}
+
+	@Override
+	public void flush() {
+		enqueue(FLUSH);
+	}
+
+	/**
+	 * Stops the writer thread, whether or not a write has failed, and waits
+	 * for it to finish.
+	 * 
+	 * @throws IOException
+	 *             the first failure of the writer thread, if any
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		// the writer keeps taking from the queue after a failure, so END
+		// always gets through
+		try {
+			queue.put(END);
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	private void enqueue(List<String> item) {
+		if (failure != null)
+			throw new UncheckedIOException(failure);
+		try {
+			queue.put(item);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void drain() {
+		List<List<String>> batch = new ArrayList<>(QUEUE_SIZE);
+		try {
+			while (true) {
+				batch.add(queue.take());
+				queue.drainTo(batch);
+				for (List<String> anagram : batch) {
+					if (anagram == END) {
+						spill();
+						channel.close();
+						return;
+					} else if (anagram == FLUSH) {
+						spill();
+					} else {
+						byte[] bytes = format.encode(anagram);
+						if (bytes.length > buffer.remaining())
+							spill();
+						if (bytes.length > buffer.capacity()) {
+							ByteBuffer b = ByteBuffer.wrap(bytes);
+							while (b.hasRemaining())
+								channel.write(b);
+						} else {
+							buffer.put(bytes);
+						}
+					}
+				}
+				batch.clear();
+			}
+		} catch (IOException e) {
+			failure = e;
+			try {
+				channel.close();
+			} catch (IOException e1) {
+				// the first failure is the one reported
+			}
+			for (List<String> anagram : batch) {
+				if (anagram == END)
+					return;
+			}
+			// keep consuming so producers never block on a dead writer
+			while (true) {
+				try {
+					if (queue.take() == END)
+						return;
+				} catch (InterruptedException e1) {
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writes out the contents of the buffer.
+	 * 
+	 * @throws IOException
+	 */
+	private void spill() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+}
@@ -4,8 +4,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
 
 /**
  * @author houghton
@@ -13,8 +11,14 @@ import java.util.TreeSet;
  */
 public class CharCount {
 	public int[] counts;
+	/**
+	 * characters counted, including blanks
+	 */
 	public int total = 0;
-	private boolean frozen = false;
+	/**
+	 * wildcards, each of which may stand for any character
+	 */
+	public int blanks = 0;
 	private int hc;
 	private int[] charSet;
 
@@ -23,12 +27,13 @@ public class CharCount {
 	}
 
 	public CharCount dup() {
-		return new CharCount(Arrays.copyOf(counts, counts.length), total);
+		return new CharCount(Arrays.copyOf(counts, counts.length), total, blanks);
 	}
 
-	private CharCount(int[] counts, int total) {
+	private CharCount(int[] counts, int total, int blanks) {
 		this.counts = counts;
 		this.total = total;
+		this.blanks = blanks;
 	}
 
 	public boolean done() {
@@ -73,54 +78,93 @@ public class CharCount {
 		return counts[i] > 0;
 	}
 
+	/**
+	 * Spends a blank.
+	 * 
+	 * @return whether there was a blank to spend
+	 */
+	public boolean decBlank() {
+		if (blanks == 0)
+			return false;
+		blanks--;
+		total--;
+		return true;
+	}
+
 	@Override
 	public boolean equals(Object o) {
+		if (this == o)
+			return true;
 		try {
 			CharCount cc = (CharCount) o;
-			if (total != cc.total) {
+			if (total != cc.total || blanks != cc.blanks) {
 				return false;
 			}
-			for (int i = 0; i < counts.length; i++) {
-				if (counts[i] != cc.counts[i]) {
-					return false;
-				}
-			}
-			return true;
+			return CountOps.INSTANCE.equal(counts, cc.counts);
 		} catch (ClassCastException e) {
 			return false;
 		}
 	}
 
+	/**
+	 * The hash code is cached the first time it is calculated, so a count
+	 * should not be modified once it has been used as a key. As with
+	 * {@link String}, the cache is safe to share between threads without
+	 * synchronization.
+	 */
 	@Override
 	public int hashCode() {
-		if (!frozen) {
-			hc = Arrays.hashCode(counts);
-			frozen = true;
+		int h = hc;
+		if (h == 0) {
+			h = CountOps.INSTANCE.hash(counts) + 997 * blanks;
+			hc = h;
 		}
-		return hc;
+		return h;
 	}
 
 	/**
-	 * @return the set of characters counted
+	 * @return the set of characters counted, not including blanks
 	 */
 	public int[] charSet() {
 		if (charSet == null) {
-			Set<Integer> set = new TreeSet<>();
-			for (int i = 0; i < counts.length; i++) {
-				int c = counts[i];
-				if (c > 0) {
-					set.add(i);
-				}
+			int n = 0;
+			for (int c : counts) {
+				if (c > 0)
+					n++;
 			}
-			charSet = new int[set.size()];
-			int i = 0;
-			for (int c: set) {
-				charSet[i++] = c;
+			int[] set = new int[n];
+			for (int i = 0, j = 0; j < n; i++) {
+				if (counts[i] > 0)
+					set[j++] = i;
 			}
+			charSet = set;
 		}
 		return charSet;
 	}
 
+	/**
+	 * @param cc
+	 *            a count over the same characters
+	 * @return whether every character in cc, and every blank, occurs at least
+	 *         as often in this
+	 */
+	public boolean contains(CharCount cc) {
+		return total >= cc.total && blanks >= cc.blanks && CountOps.INSTANCE.contains(counts, cc.counts);
+	}
+
+	/**
+	 * @param cc
+	 *            a count contained in this one
+	 * @return a new count of what remains when cc is removed from this
+	 */
+	public CharCount minus(CharCount cc) {
+		CharCount remainder = new CharCount(counts.length);
+		CountOps.INSTANCE.subtract(counts, cc.counts, remainder.counts);
+		remainder.total = total - cc.total;
+		remainder.blanks = blanks - cc.blanks;
+		return remainder;
+	}
+
 	/**
 	 * @param cc
 	 * @return list of all the characters whose counts were decremented between
@@ -145,6 +189,8 @@ public class CharCount {
 			b.append('.');
 			b.append(counts[i]);
 		}
+		if (blanks > 0)
+			b.append('?').append(blanks);
 		return b.toString();
 	}
 }
@@ -0,0 +1,46 @@
+package dfh.anagrams;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A concurrent canonicalization table for character counts. Every partial
+ * evaluation whose remainder has been interned shares the one canonical
+ * instance of that remainder, which is also the key under which the remainder
+ * is cached, so the graph holds a single count vector per distinct remainder
+ * and cache lookups succeed on identity.
+ * 
+ * @author houghton
+ *
+ */
+class CharCountInterner {
+	private final Map<CharCount, CharCount> canon = new ConcurrentHashMap<>();
+
+	/**
+	 * @param cc
+	 *            a count which will no longer be modified
+	 * @return the canonical instance equal to the count
+	 */
+	CharCount intern(CharCount cc) {
+		CharCount c = canon.putIfAbsent(cc, cc);
+		return c == null ? cc : c;
+	}
+
+	/**
+	 * Forgets all counts not among those given.
+	 * 
+	 * @param keep
+	 */
+	void retainAll(Collection<CharCount> keep) {
+		canon.keySet().retainAll(keep);
+	}
+
+	void clear() {
+		canon.clear();
+	}
+
+	int size() {
+		return canon.size();
+	}
+}
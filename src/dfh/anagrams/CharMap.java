@@ -86,6 +86,14 @@ public class CharMap {
 		return cc;
 	}
 
+	/**
+	 * @return the length of the count arrays this map produces: one more than
+	 *         the number of characters
+	 */
+	public int size() {
+		return i2c.length;
+	}
+
 	public char intToChar(int i) {
 		if (i < 0 || i >= i2c.length) {
 			return (char) 0;
@@ -0,0 +1,35 @@
+package dfh.anagrams;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for one round of removing branches which lead to duds.
+ * 
+ * @author houghton
+ *
+ */
+@Name("dfh.anagrams.CleanRound")
+@Label("Clean Round")
+@Category("Anagrams")
+@Description("One round of removing branches which lead to duds")
+@StackTrace(false)
+class CleanRoundEvent extends Event {
+	@Label("Round")
+	int round;
+
+	@Label("Duds")
+	@Description("duds whose branches were removed this round")
+	int duds;
+
+	@Label("Branches Removed")
+	int branchesRemoved;
+
+	@Label("Counts Removed")
+	@Description("character counts left with no branches, the next round's duds")
+	int countsRemoved;
+}
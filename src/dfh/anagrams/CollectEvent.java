@@ -0,0 +1,32 @@
+package dfh.anagrams;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for one collection task: the gathering of all the
+ * anagrams below one first word.
+ * 
+ * @author houghton
+ *
+ */
+@Name("dfh.anagrams.Collect")
+@Label("Collect")
+@Category("Anagrams")
+@Description("Collection of the anagrams below one first word")
+@StackTrace(false)
+class CollectEvent extends Event {
+	@Label("Word")
+	String word;
+
+	@Label("Remainder")
+	@Description("the character count left after the word, as letters")
+	String remainder;
+
+	@Label("Anagrams")
+	int anagrams;
+}
@@ -0,0 +1,64 @@
+package dfh.anagrams;
+
+/**
+ * The element-wise operations on count arrays at the heart of the search:
+ * equality, hashing, containment, and subtraction. There is a SIMD
+ * implementation using the incubating vector API, used when the
+ * {@code jdk.incubator.vector} module is present at run time, and a scalar
+ * one otherwise. Setting the system property {@code anagrams.vector} to
+ * {@code false} forces the scalar implementation.
+ * 
+ * @author houghton
+ *
+ */
+abstract class CountOps {
+	static final CountOps INSTANCE = choose();
+
+	private static CountOps choose() {
+		if (Boolean.parseBoolean(System.getProperty("anagrams.vector", "true"))) {
+			try {
+				return (CountOps) Class.forName("dfh.anagrams.VectorCountOps").getDeclaredConstructor().newInstance();
+			} catch (LinkageError | ReflectiveOperationException e) {
+				// the vector module was not added
+			}
+		}
+		return new ScalarCountOps();
+	}
+
+	/**
+	 * @param a
+	 * @param b
+	 *            an array of the same length
+	 * @return whether the arrays are identical
+	 */
+	abstract boolean equal(int[] a, int[] b);
+
+	/**
+	 * @param a
+	 * @return the same value as {@link java.util.Arrays#hashCode(int[])}
+	 */
+	abstract int hash(int[] a);
+
+	/**
+	 * @param a
+	 * @param b
+	 *            an array of the same length
+	 * @return whether no count in b exceeds the corresponding count in a
+	 */
+	abstract boolean contains(int[] a, int[] b);
+
+	/**
+	 * Stores a - b in out.
+	 * 
+	 * @param a
+	 * @param b
+	 * @param out
+	 *            may be a or b
+	 */
+	abstract void subtract(int[] a, int[] b, int[] out);
+
+	/**
+	 * @return a name for this implementation
+	 */
+	abstract String name();
+}
@@ -0,0 +1,91 @@
+package dfh.anagrams;
+
+import java.util.Random;
+
+/**
+ * Times the scalar and vector count array operations against each other over
+ * count arrays of realistic sizes: a CharMap for English has 27 slots, for
+ * accented Latin alphabets 40 or so.
+ * 
+ * <pre>
+ * java --add-modules jdk.incubator.vector -cp ... dfh.anagrams.CountOpsBenchmark [size...]
+ * </pre>
+ * 
+ * @author houghton
+ *
+ */
+public class CountOpsBenchmark {
+	private static final int ARRAYS = 1024, ROUNDS = 2000;
+
+	/**
+	 * defeats dead code elimination
+	 */
+	private static long sink;
+
+	public static void main(String[] args) {
+		int[] sizes = args.length == 0 ? new int[] { 16, 27, 40, 64 } : new int[args.length];
+		for (int i = 0; i < args.length; i++)
+			sizes[i] = Integer.parseInt(args[i]);
+		CountOps scalar = new ScalarCountOps(), vector = CountOps.INSTANCE;
+		if (vector instanceof ScalarCountOps) {
+			System.err.println("vector API unavailable; run with --add-modules jdk.incubator.vector");
+			return;
+		}
+		System.out.printf("%s vs %s%n", scalar.name(), vector.name());
+		System.out.printf("%5s %-10s %12s %12s %8s%n", "size", "operation", "scalar ns", "vector ns", "speedup");
+		for (int size : sizes) {
+			int[][] a = new int[ARRAYS][], b = new int[ARRAYS][];
+			Random r = new Random(size);
+			for (int i = 0; i < ARRAYS; i++) {
+				a[i] = new int[size];
+				b[i] = new int[size];
+				for (int j = 0; j < size; j++) {
+					a[i][j] = r.nextInt(4);
+					b[i][j] = r.nextInt(2) == 0 ? 0 : Math.min(a[i][j], 1);
+				}
+			}
+			// equal arrays are the expensive case for equality
+			int[][] copies = new int[ARRAYS][];
+			for (int i = 0; i < ARRAYS; i++)
+				copies[i] = a[i].clone();
+			for (String op : new String[] { "equal", "hash", "contains", "subtract" }) {
+				for (int warm = 0; warm < 5; warm++) {
+					time(scalar, op, a, b, copies);
+					time(vector, op, a, b, copies);
+				}
+				double s = time(scalar, op, a, b, copies), v = time(vector, op, a, b, copies);
+				System.out.printf("%5d %-10s %12.2f %12.2f %7.2fx%n", size, op, s, v, s / v);
+			}
+		}
+		if (sink == 42)
+			System.out.println();
+	}
+
+	/**
+	 * @return nanoseconds per operation
+	 */
+	private static double time(CountOps ops, String op, int[][] a, int[][] b, int[][] copies) {
+		int[] out = new int[a[0].length];
+		long n = 0, start = System.nanoTime();
+		for (int round = 0; round < ROUNDS; round++) {
+			for (int i = 0; i < a.length; i++) {
+				switch (op) {
+				case "equal":
+					n += ops.equal(a[i], copies[i]) ? 1 : 0;
+					break;
+				case "hash":
+					n += ops.hash(a[i]);
+					break;
+				case "contains":
+					n += ops.contains(a[i], b[i]) ? 1 : 0;
+					break;
+				default:
+					ops.subtract(a[i], b[i], out);
+					n += out[0];
+				}
+			}
+		}
+		sink += n;
+		return (System.nanoTime() - start) / (double) ROUNDS / a.length;
+	}
+}
@@ -0,0 +1,58 @@
+package dfh.anagrams;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Encodes a position in the deterministic enumeration order of a cleaned
+ * partial evaluation graph as an opaque string. The position is the path of
+ * edge indices leading to the next anagram to emit, written as variable length
+ * integers and base 64 encoded so it is safe to put in a URL.
+ * 
+ * @author houghton
+ *
+ */
+public class Cursor {
+	private Cursor() {
+	}
+
+	public static String encode(int[] indices) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(indices.length * 2);
+		for (int i : indices) {
+			while ((i & ~0x7f) != 0) {
+				out.write((i & 0x7f) | 0x80);
+				i >>>= 7;
+			}
+			out.write(i);
+		}
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(out.toByteArray());
+	}
+
+	/**
+	 * @param cursor
+	 * @return the edge indices encoded
+	 * @throws IllegalArgumentException
+	 *             if the cursor is malformed
+	 */
+	public static int[] decode(String cursor) {
+		byte[] bytes = Base64.getUrlDecoder().decode(cursor);
+		int[] indices = new int[bytes.length];
+		int n = 0, value = 0, shift = 0;
+		for (byte b : bytes) {
+			if (shift > 28)
+				throw new IllegalArgumentException("malformed cursor: " + cursor);
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				indices[n++] = value;
+				value = 0;
+				shift = 0;
+			} else {
+				shift += 7;
+			}
+		}
+		if (shift != 0)
+			throw new IllegalArgumentException("malformed cursor: " + cursor);
+		return Arrays.copyOf(indices, n);
+	}
+}
@@ -0,0 +1,102 @@
+package dfh.anagrams;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the current version of a dictionary for a long-running process.
+ * Replacement dictionaries are built on a background thread, one at a time,
+ * while searches continue against the current one, and are then swapped in
+ * atomically. A search which has already fetched a dictionary finishes with it;
+ * only searches begun after the swap see the new one. Listeners are told of
+ * every swap, so caches keyed to the old dictionary can be invalidated.
+ * 
+ * @author houghton
+ *
+ */
+public class DictionarySnapshots {
+	/**
+	 * Called after a new dictionary is swapped in.
+	 */
+	public interface SwapListener {
+		void swapped(AnagramDictionary old, AnagramDictionary replacement);
+	}
+
+	private final AtomicReference<AnagramDictionary> current;
+	private final List<SwapListener> listeners = new CopyOnWriteArrayList<>();
+	private final ExecutorService builder = Executors.newSingleThreadExecutor((r) -> {
+		Thread t = new Thread(r, "dictionary builder");
+		t.setDaemon(true);
+		return t;
+	});
+
+	public DictionarySnapshots(AnagramDictionary initial) {
+		current = new AtomicReference<>(initial);
+	}
+
+	/**
+	 * @return the dictionary new searches should use
+	 */
+	public AnagramDictionary current() {
+		return current.get();
+	}
+
+	public void addListener(SwapListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(SwapListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Rebuilds the dictionary from a word list in the background, normalizing
+	 * it as the current dictionary was.
+	 * 
+	 * @param wordList
+	 * @return the new dictionary, once it is in place
+	 */
+	public CompletableFuture<AnagramDictionary> reload(File wordList) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return swap(AnagramDictionary.load(wordList, current.get().normalizer()));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, builder);
+	}
+
+	/**
+	 * Applies a small change to the dictionary in the background, copying only
+	 * the parts of the current dictionary affected. Updates are applied in the
+	 * order they are requested, each to the result of the one before.
+	 * 
+	 * @param added
+	 * @param removed
+	 * @return the new dictionary, once it is in place
+	 */
+	public CompletableFuture<AnagramDictionary> update(Collection<String> added, Collection<String> removed) {
+		return CompletableFuture.supplyAsync(() -> swap(current.get().withChanges(added, removed)), builder);
+	}
+
+	/**
+	 * Puts a new dictionary in place.
+	 * 
+	 * @param replacement
+	 * @return the replacement
+	 */
+	public AnagramDictionary swap(AnagramDictionary replacement) {
+		AnagramDictionary old = current.getAndSet(replacement);
+		for (SwapListener listener : listeners)
+			listener.swapped(old, replacement);
+		return replacement;
+	}
+}
@@ -0,0 +1,32 @@
+package dfh.anagrams;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for the discovery that a character count cannot be
+ * completely spelled with words from the dictionary.
+ * 
+ * @author houghton
+ *
+ */
+@Name("dfh.anagrams.Dud")
+@Label("Dud")
+@Category("Anagrams")
+@Description("A character count found to have no anagram")
+@StackTrace(false)
+class DudEvent extends Event {
+	@Label("Count")
+	@Description("the character count, as letters")
+	String key;
+
+	@Label("Letters")
+	int letters;
+
+	@Label("Reason")
+	String reason;
+}
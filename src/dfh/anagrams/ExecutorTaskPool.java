@@ -0,0 +1,125 @@
+package dfh.anagrams;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link TaskPool} which borrows threads from a shared executor. Tasks are
+ * queued here and drained by at most a fixed number of executor threads at a
+ * time, so one search cannot monopolize the executor. A thread waiting in
+ * {@link #flush()} runs queued tasks itself, so searches make progress even
+ * when every executor thread is busy, including when the searches themselves
+ * are running on the executor.
+ * 
+ * @author houghton
+ *
+ */
+class ExecutorTaskPool implements TaskPool {
+	private final Executor executor;
+	private final int parallelism;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger drainers = new AtomicInteger(), outstanding = new AtomicInteger();
+	/**
+	 * threads waiting in {@link #flush()}; they are woken when a task is
+	 * queued, since they may run it, and when the last task finishes
+	 */
+	private final AtomicInteger waiting = new AtomicInteger();
+	private final Object lock = new Object();
+	private volatile RuntimeException failure;
+
+	/**
+	 * @param executor
+	 *            shared executor
+	 * @param parallelism
+	 *            maximum number of executor threads to occupy at once
+	 */
+	ExecutorTaskPool(Executor executor, int parallelism) {
+		this.executor = executor;
+		this.parallelism = parallelism;
+	}
+
+	@Override
+	public void run(Runnable r) {
+		outstanding.incrementAndGet();
+		tasks.add(r);
+		if (waiting.get() > 0) {
+			synchronized (lock) {
+				lock.notifyAll();
+			}
+		}
+		recruit();
+	}
+
+	/**
+	 * Hands a drainer to the executor if there is work and room for one.
+	 */
+	private void recruit() {
+		for (int d; !tasks.isEmpty() && (d = drainers.get()) < parallelism;) {
+			if (drainers.compareAndSet(d, d + 1)) {
+				executor.execute(this::drain);
+				return;
+			}
+		}
+	}
+
+	private void drain() {
+		try {
+			for (Runnable r; (r = tasks.poll()) != null;)
+				execute(r);
+		} finally {
+			drainers.decrementAndGet();
+		}
+		// a task may have arrived after the last poll but before the decrement
+		recruit();
+	}
+
+	private void execute(Runnable r) {
+		try {
+			r.run();
+		} catch (RuntimeException e) {
+			if (failure == null)
+				failure = e;
+		} finally {
+			if (outstanding.decrementAndGet() == 0) {
+				synchronized (lock) {
+					lock.notifyAll();
+				}
+			}
+		}
+	}
+
+	@Override
+	public void flush() {
+		while (true) {
+			for (Runnable r; (r = tasks.poll()) != null;)
+				execute(r);
+			synchronized (lock) {
+				waiting.incrementAndGet();
+				try {
+					// a task queued or finished after this check notifies
+					if (outstanding.get() == 0)
+						break;
+					if (tasks.isEmpty())
+						lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				} finally {
+					waiting.decrementAndGet();
+				}
+			}
+		}
+		RuntimeException e = failure;
+		if (e != null) {
+			failure = null;
+			throw e;
+		}
+	}
+
+	@Override
+	public void die() {
+		// the threads belong to the executor
+	}
+}
@@ -0,0 +1,37 @@
+package dfh.anagrams;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for the expansion of one character count into the
+ * words extractable from it.
+ * 
+ * @author houghton
+ *
+ */
+@Name("dfh.anagrams.Expansion")
+@Label("Expansion")
+@Category("Anagrams")
+@Description("Expansion of a character count into the words extractable from it")
+@StackTrace(false)
+class ExpansionEvent extends Event {
+	@Label("Count")
+	@Description("the character count expanded, as letters")
+	String key;
+
+	@Label("Letters")
+	int letters;
+
+	@Label("Candidates")
+	@Description("words extractable from the count")
+	int candidates;
+
+	@Label("Kept")
+	@Description("words kept after pruning to those using the pivot character")
+	int kept;
+}
@@ -0,0 +1,119 @@
+package dfh.anagrams;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import dfh.cli.Cli;
+import dfh.cli.coercions.FileCoercion;
+import dfh.cli.rules.Range;
+
+/**
+ * Reads a graph written by {@link Anagramizer} with <code>--graph binary</code>
+ * and counts, pages through, samples, or expands its anagrams without the
+ * dictionary. Gzipped graphs are recognized.
+ *
+ * @author houghton
+ *
+ */
+public class GraphTool {
+
+	public static void main(String[] args) {
+		Object[][][] spec = {
+				//
+				{ { Cli.Opt.USAGE, "count, page through, sample, or expand the anagrams in a graph" } }, //
+				{ { Cli.Opt.NAME, GraphTool.class.getCanonicalName() } }, //
+				{ { "graph", 'g', FileCoercion.C }, { "graph written with --graph binary" }, { Cli.Res.REQUIRED } }, //
+				{ { "format", String.class, "text" }, { "output format: text, ndjson, or binary" } }, //
+				{ { "count", 'c' }, { "print the number of anagrams and the size of the graph" } }, //
+				{ { "sample", Integer.class }, { "draw this many anagrams uniformly at random" }, { Range.positive() } }, //
+				{ { "seed", Integer.class }, { "seed for --sample; samples with the same seed are the same" } }, //
+				{ { "distinct" }, { "with --sample, sample without replacement" } }, //
+				{ { "page", Integer.class }, { "return a page of at most this many anagrams in a repeatable order" },
+						{ Range.positive() } }, //
+				{ { "cursor", String.class }, { "with --page, cursor printed by the previous page" } }, //
+				{ { "offset", String.class, "0" }, { "with --page, number of anagrams to skip; value must be >= 0" } }, //
+				{ { "expand" }, { "write every anagram" } }, //
+		};
+		Cli cli = new Cli(spec);
+		cli.parse(args);
+		File file = (File) cli.object("graph");
+		AnagramFormat format = null;
+		for (AnagramFormat f : AnagramFormat.values()) {
+			if (f.name().equalsIgnoreCase(cli.string("format")))
+				format = f;
+		}
+		if (format == null) {
+			cli.die("unknown output format: " + cli.string("format"));
+		}
+		AnagramGraph graph = null;
+		try (InputStream in = open(file)) {
+			graph = AnagramGraph.read(in);
+		} catch (IOException e) {
+			cli.die("could not read a graph from " + file + ": " + e.getMessage());
+		}
+		if (cli.bool("count")) {
+			System.out.printf("%,d anagrams; %,d character counts, %,d partial evaluations, %,d words\n",
+					graph.count(), graph.nodes(), graph.edges(), graph.words());
+		}
+		AnagramWriter out = new StreamAnagramWriter(System.out, format);
+		Integer sample = cli.integer("sample"), seed = cli.integer("seed"), page = cli.integer("page");
+		String next = null;
+		if (page != null) {
+			BigInteger offset = null;
+			if (cli.string("cursor") == null) {
+				try {
+					offset = new BigInteger(cli.string("offset"));
+				} catch (NumberFormatException e) {
+					cli.die("--offset must be a whole number: " + cli.string("offset"));
+				}
+			} else {
+				try {
+					offset = graph.rank(cli.string("cursor"));
+				} catch (IllegalArgumentException e) {
+					cli.die(e.getMessage());
+				}
+			}
+			try {
+				for (List<String> anagram : graph.page(offset, page))
+					out.write(anagram);
+			} catch (IllegalArgumentException e) {
+				cli.die(e.getMessage());
+			}
+			next = graph.cursor(offset.add(BigInteger.valueOf(page)));
+		} else if (sample != null) {
+			Random random = seed == null ? new Random() : new Random(seed);
+			for (List<String> anagram : graph.sample(sample, random, cli.bool("distinct")))
+				out.write(anagram);
+		} else if (cli.bool("expand")) {
+			graph.expand(out);
+		}
+		try {
+			out.close();
+		} catch (IOException e) {
+			System.err.println("error writing anagrams: " + e.getMessage());
+		}
+		if (page != null) {
+			if (next == null)
+				System.err.println("no more anagrams");
+			else
+				System.err.println("next cursor: " + next);
+		}
+	}
+
+	private static InputStream open(File file) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		in.mark(2);
+		int b1 = in.read(), b2 = in.read();
+		in.reset();
+		if (b1 == (GZIPInputStream.GZIP_MAGIC & 0xFF) && b2 == GZIPInputStream.GZIP_MAGIC >>> 8)
+			return new GZIPInputStream(in, 1 << 16);
+		return in;
+	}
+}
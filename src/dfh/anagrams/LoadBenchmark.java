@@ -0,0 +1,338 @@
+package dfh.anagrams;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import dfh.cli.Cli;
+import dfh.cli.coercions.FileCoercion;
+import dfh.cli.rules.Range;
+
+/**
+ * Measures how the search scales with thread count and phrase length. Phrases
+ * from a corpus are bucketed by letter count, and every bucket is searched
+ * with every combination of thread count and stower. Each run gets a fresh
+ * {@link TrieWalker}, so nothing is cached between runs. For each combination
+ * the benchmark records the wall time, the time in each phase, the peak heap
+ * and the collector time, and from these the throughput of each phase and the
+ * speedup over the smallest thread count. The results may be written as CSV,
+ * which can serve as the baseline for a later run, or as JSON. Given a
+ * baseline, the benchmark reports every combination which has become slower
+ * or scales worse than before, and exits with status 1 if there are any.
+ *
+ * @author houghton
+ *
+ */
+public class LoadBenchmark {
+	private static final String[] COLUMNS = { "bucket", "stower", "threads", "phrases", "wall_ms", "walk_ms",
+			"clean_ms", "collect_ms", "character_counts", "anagrams", "walk_counts_per_s", "collect_anagrams_per_s",
+			"peak_heap_mb", "gc_ms", "speedup" };
+
+	/**
+	 * The totals for one combination of bucket, stower, and thread count.
+	 */
+	private static class Result {
+		final String bucket, stower;
+		final int threads;
+		int phrases;
+		long wall, walk, clean, collect, characterCounts, anagrams, peakHeap, gc;
+		double speedup = 1;
+
+		Result(String bucket, String stower, int threads) {
+			this.bucket = bucket;
+			this.stower = stower;
+			this.threads = threads;
+		}
+
+		String key() {
+			return bucket + ',' + stower + ',' + threads;
+		}
+
+		Object[] values() {
+			return new Object[] { bucket, stower, threads, phrases, wall, walk, clean, collect, characterCounts,
+					anagrams, rate(characterCounts, walk), rate(anagrams, collect), peakHeap / (double) (1 << 20),
+					gc, speedup };
+		}
+
+		private static double rate(long n, long ms) {
+			return ms == 0 ? 0 : n * 1000.0 / ms;
+		}
+	}
+
+	public static void main(String[] args) {
+		Object[][][] spec = {
+				//
+				{ { Cli.Opt.USAGE, "measure how the anagram search scales with threads and phrase length" } }, //
+				{ { Cli.Opt.NAME, LoadBenchmark.class.getCanonicalName() } }, //
+				{ { "dictionary", 'd', FileCoercion.C }, { "word list; one word per line" }, { Cli.Res.REQUIRED } }, //
+				{ { "corpus", 'c', FileCoercion.C }, { "phrases to search; one per line" }, { Cli.Res.REQUIRED } }, //
+				{ { "threads", String.class, "1,2,4,8" }, { "comma-separated thread counts to sweep" } }, //
+				{ { "stowers", String.class, "pass,uniq,sort" },
+						{ "comma-separated stowers to sweep: pass, uniq, or sort" } }, //
+				{ { "bucket", Integer.class, 2 }, { "width in letters of a phrase length bucket" },
+						{ Range.positive() } }, //
+				{ { "repeat", Integer.class, 3 }, { "runs of each phrase; the fastest is kept" },
+						{ Range.positive() } }, //
+				{ { "warmup", Integer.class, 1 }, { "passes over the whole corpus before measuring" } }, //
+				{ { "csv", FileCoercion.C }, { "file for results as CSV" } }, //
+				{ { "json", FileCoercion.C }, { "file for results as JSON" } }, //
+				{ { "baseline", FileCoercion.C }, { "CSV from an earlier run to compare against" } }, //
+				{ { "tolerance", Integer.class, 10 },
+						{ "percentage by which a result may be worse than the baseline" } }, //
+		};
+		Cli cli = new Cli(spec);
+		cli.parse(args);
+		File dictionary = (File) cli.object("dictionary"), corpus = (File) cli.object("corpus");
+		int width = cli.integer("bucket"), repeat = cli.integer("repeat");
+		int[] threads = null;
+		try {
+			threads = Arrays.stream(cli.string("threads").split(",")).mapToInt((s) -> Integer.parseInt(s.trim()))
+					.sorted().toArray();
+		} catch (NumberFormatException e) {
+			cli.die("bad thread count list: " + cli.string("threads"));
+		}
+		String[] stowers = cli.string("stowers").split(",");
+		for (String s : stowers) {
+			if (!Arrays.asList("pass", "uniq", "sort").contains(s))
+				cli.die("unknown stower: " + s);
+		}
+		Trie trie = null;
+		List<String> phrases = null;
+		try {
+			trie = Trie.load(dictionary, StringNormalizer.DEFAULT);
+			phrases = Files.readAllLines(corpus.toPath(), StandardCharsets.UTF_8);
+		} catch (FileNotFoundException e) {
+			cli.die("could not find " + e.getMessage());
+		} catch (IOException e) {
+			cli.die("IO exception while reading input: " + e.getMessage());
+		}
+
+		// bucket the phrases by letter count
+		Map<Integer, List<String>> buckets = new TreeMap<>();
+		for (String phrase : phrases) {
+			CharCount cc = trie.characterCount(phrase);
+			if (cc != null && cc.total > 0)
+				buckets.computeIfAbsent(cc.total / width * width, (k) -> new ArrayList<>()).add(phrase);
+		}
+		if (buckets.isEmpty())
+			cli.die("no phrase in the corpus can be spelled with the dictionary's letters");
+
+		for (int i = 0; i < cli.integer("warmup"); i++) {
+			for (List<String> bucket : buckets.values()) {
+				for (String phrase : bucket)
+					run(trie, phrase, "pass", threads[threads.length - 1], new Result("", "", 0));
+			}
+		}
+
+		List<Result> results = new ArrayList<>();
+		for (Map.Entry<Integer, List<String>> e : buckets.entrySet()) {
+			int low = e.getKey();
+			String label = width == 1 ? Integer.toString(low) : low + "-" + (low + width - 1);
+			for (String stower : stowers) {
+				Result first = null;
+				for (int t : threads) {
+					Result r = new Result(label, stower, t);
+					for (String phrase : e.getValue()) {
+						Result best = null;
+						for (int i = 0; i < repeat; i++) {
+							Result run = new Result(label, stower, t);
+							run(trie, phrase, stower, t, run);
+							if (best == null || run.wall < best.wall)
+								best = run;
+						}
+						r.phrases++;
+						r.wall += best.wall;
+						r.walk += best.walk;
+						r.clean += best.clean;
+						r.collect += best.collect;
+						r.characterCounts += best.characterCounts;
+						r.anagrams += best.anagrams;
+						r.peakHeap = Math.max(r.peakHeap, best.peakHeap);
+						r.gc += best.gc;
+					}
+					if (first == null)
+						first = r;
+					r.speedup = r.wall == 0 ? 1 : first.wall / (double) r.wall;
+					results.add(r);
+					System.out.println(row(r.values()));
+				}
+			}
+		}
+
+		try {
+			if (cli.object("csv") != null) {
+				try (PrintStream out = new PrintStream((File) cli.object("csv"), "UTF-8")) {
+					out.println(String.join(",", COLUMNS));
+					for (Result r : results)
+						out.println(row(r.values()));
+				}
+			}
+			if (cli.object("json") != null) {
+				try (PrintStream out = new PrintStream((File) cli.object("json"), "UTF-8")) {
+					out.println(json(results));
+				}
+			}
+		} catch (IOException e) {
+			cli.die("could not write results: " + e.getMessage());
+		}
+
+		if (cli.object("baseline") != null) {
+			List<String> regressions = null;
+			try {
+				regressions = compare(results, (File) cli.object("baseline"), cli.integer("tolerance") / 100.0);
+			} catch (IOException e) {
+				cli.die("could not read baseline: " + e.getMessage());
+			}
+			for (String s : regressions)
+				System.err.println(s);
+			if (!regressions.isEmpty())
+				System.exit(1);
+			System.err.println("no regressions against baseline");
+		}
+	}
+
+	/**
+	 * Searches a phrase once, recording the measurements in the result.
+	 */
+	private static void run(Trie trie, String phrase, String stowerName, int threads, Result result) {
+		AnagramWriter sink = new AnagramWriter(AnagramFormat.TEXT) {
+			@Override
+			public void write(List<String> anagram) {
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		AnagramStower stower;
+		if (stowerName.equals("sort"))
+			stower = new SortedUniqStower(sink);
+		else if (stowerName.equals("uniq"))
+			stower = new UniqStower(sink);
+		else
+			stower = new PassThroughStower(sink);
+		TrieWalker walker = new TrieWalker(trie, stower, threads);
+		final long[] marks = new long[3];
+		walker.beforeWalk = () -> {
+			marks[0] = System.nanoTime();
+		};
+		walker.beforeClean = () -> {
+			marks[1] = System.nanoTime();
+		};
+		walker.beforeCollect = () -> {
+			marks[2] = System.nanoTime();
+		};
+		System.gc();
+		List<MemoryPoolMXBean> heap = new ArrayList<>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+				heap.add(pool);
+			}
+		}
+		long gc = gcTime(), start = System.nanoTime();
+		Search search = walker.anagrams(phrase, () -> {
+		}, false, false).await();
+		long end = System.nanoTime();
+		result.gc = gcTime() - gc;
+		for (MemoryPoolMXBean pool : heap)
+			result.peakHeap += pool.getPeakUsage().getUsed();
+		result.wall = ms(end - start);
+		if (marks[1] > 0)
+			result.walk = ms(marks[1] - marks[0]);
+		if (marks[2] > 0) {
+			result.clean = ms(marks[2] - marks[1]);
+			result.collect = ms(end - marks[2]);
+		}
+		result.characterCounts = search.characterCounts();
+		result.anagrams = search.anagrams();
+	}
+
+	private static long ms(long nanos) {
+		return nanos / 1_000_000;
+	}
+
+	private static long gcTime() {
+		long t = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			t += Math.max(0, gc.getCollectionTime());
+		return t;
+	}
+
+	private static String row(Object[] values) {
+		StringBuilder b = new StringBuilder();
+		for (Object o : values) {
+			if (b.length() > 0)
+				b.append(',');
+			b.append(o instanceof Double ? String.format("%.2f", o) : o);
+		}
+		return b.toString();
+	}
+
+	private static String json(List<Result> results) {
+		StringBuilder b = new StringBuilder("[\n");
+		for (int i = 0; i < results.size(); i++) {
+			Object[] values = results.get(i).values();
+			b.append("  {");
+			for (int j = 0; j < COLUMNS.length; j++) {
+				if (j > 0)
+					b.append(", ");
+				b.append('"').append(COLUMNS[j]).append("\": ");
+				Object o = values[j];
+				if (o instanceof String)
+					b.append('"').append(o).append('"');
+				else if (o instanceof Double)
+					b.append(String.format("%.2f", o));
+				else
+					b.append(o);
+			}
+			b.append(i == results.size() - 1 ? "}\n" : "},\n");
+		}
+		return b.append(']').toString();
+	}
+
+	/**
+	 * @return a description of every combination whose wall time has risen or
+	 *         whose speedup has fallen by more than the tolerance
+	 */
+	private static List<String> compare(List<Result> results, File baseline, double tolerance) throws IOException {
+		List<String> lines = Files.readAllLines(baseline.toPath(), StandardCharsets.UTF_8);
+		List<String> header = Arrays.asList(lines.get(0).split(","));
+		int wall = header.indexOf("wall_ms"), speedup = header.indexOf("speedup");
+		Map<String, String[]> rows = new HashMap<>();
+		for (String line : lines.subList(1, lines.size())) {
+			String[] row = line.split(",");
+			rows.put(row[0] + ',' + row[1] + ',' + row[2], row);
+		}
+		List<String> regressions = new ArrayList<>();
+		for (Result r : results) {
+			String[] row = rows.get(r.key());
+			if (row == null)
+				continue;
+			long oldWall = Long.parseLong(row[wall]);
+			double oldSpeedup = Double.parseDouble(row[speedup]);
+			if (r.wall > oldWall * (1 + tolerance))
+				regressions.add(String.format("%s: wall time %,d ms, baseline %,d ms", r.key(), r.wall, oldWall));
+			if (r.speedup < oldSpeedup * (1 - tolerance))
+				regressions.add(String.format("%s: speedup %.2f, baseline %.2f", r.key(), r.speedup, oldSpeedup));
+		}
+		return regressions;
+	}
+}
@@ -0,0 +1,96 @@
+package dfh.anagrams;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks an estimate of the heap consumed by the partial evaluation cache. The
+ * estimate is rough -- it is based on typical object sizes on a 64-bit JVM
+ * with compressed pointers -- but it is cheap to maintain and it grows in
+ * proportion to the real thing, which is what is needed to decide whether a
+ * walk will fit before it runs out of memory.
+ * 
+ * @author houghton
+ *
+ */
+class MemoryBudget {
+	/**
+	 * estimated bytes per cache entry, per edge, and per array element
+	 */
+	private static final long NODE = 128, EDGE = 72, INT = 4;
+	/**
+	 * expansions needed before the average expansion size is trusted
+	 */
+	private static final int SAMPLE = 256;
+	private final long limit;
+	private final AtomicLong used = new AtomicLong(), nodes = new AtomicLong();
+
+	/**
+	 * @param limit
+	 *            bytes the cache may occupy
+	 */
+	MemoryBudget(long limit) {
+		this.limit = limit;
+	}
+
+	/**
+	 * Records the addition of an expansion to the cache.
+	 * 
+	 * @param cc
+	 * @param list
+	 */
+	void charge(CharCount cc, List<PartialEvaluation> list) {
+		long bytes = NODE + cc.counts.length * INT;
+		for (PartialEvaluation pe : list) {
+			bytes += EDGE + pe.n * INT;
+		}
+		used.addAndGet(bytes);
+		nodes.incrementAndGet();
+	}
+
+	/**
+	 * @param pending
+	 *            number of character counts awaiting expansion
+	 * @return the estimated size of the cache once the pending counts have been
+	 *         expanded, assuming they are of average size
+	 */
+	long projected(int pending) {
+		long n = nodes.get(), u = used.get();
+		return n == 0 ? u : u + pending * (u / n);
+	}
+
+	/**
+	 * @param pending
+	 * @return whether the cache is too big, or, once there are enough
+	 *         expansions to estimate the average, whether it is projected to be
+	 */
+	boolean exceeded(int pending) {
+		if (used.get() > limit)
+			return true;
+		return nodes.get() >= SAMPLE && projected(pending) > limit;
+	}
+
+	/**
+	 * @return whether there is room for more in the cache
+	 */
+	boolean hasRoom() {
+		return used.get() < limit;
+	}
+
+	long limit() {
+		return limit;
+	}
+
+	long used() {
+		return used.get();
+	}
+
+	long expansions() {
+		return nodes.get();
+	}
+
+	void reset() {
+		used.set(0);
+		nodes.set(0);
+	}
+}
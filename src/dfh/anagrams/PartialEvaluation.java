@@ -15,8 +15,12 @@ import java.util.TreeSet;
  *
  */
 public class PartialEvaluation {
+	/**
+	 * the characters of the word; a blank standing for character i is stored
+	 * as -i
+	 */
 	int[] word;
-	String w;
+	volatile String w;
 	int n = 0;
 	boolean frozen = false;
 	CharCount cc;
@@ -26,11 +30,17 @@ public class PartialEvaluation {
 		return cc.total == 0;
 	}
 
+	/**
+	 * @return the characters taken from the count, not including those spelled
+	 *         with blanks
+	 */
 	Set<Integer> charSet() {
 		if (charSet == null) {
 			charSet = new TreeSet<>();
-			for (int i : word)
-				charSet.add(i);
+			for (int i : word) {
+				if (i > 0)
+					charSet.add(i);
+			}
 		}
 		return charSet;
 	}
@@ -40,6 +50,20 @@ public class PartialEvaluation {
 		this.cc = cc.dup();
 	}
 
+	/**
+	 * Makes a partial evaluation for a complete word.
+	 * 
+	 * @param word
+	 *            the word extracted
+	 * @param remainder
+	 *            the characters remaining; this is not copied
+	 */
+	PartialEvaluation(int[] word, CharCount remainder) {
+		this.word = word;
+		this.n = word.length;
+		this.cc = remainder;
+	}
+
 	private PartialEvaluation(int[] word, int n, CharCount cc) {
 		this.word = Arrays.copyOf(word, word.length);
 		this.n = n;
@@ -50,6 +74,16 @@ public class PartialEvaluation {
 		return new PartialEvaluation(word, n, cc);
 	}
 
+	/**
+	 * Extends the word by a character, taking it from the count if possible
+	 * and otherwise spending a blank on it. Since a blank can do anything the
+	 * character could, using the character where there is one loses no
+	 * anagrams.
+	 * 
+	 * @param i
+	 * @return the extended partial evaluation, or null if neither the
+	 *         character nor a blank is available
+	 */
 	public PartialEvaluation add(int i) {
 		// assert !frozen;
 		if (cc.hasAny(i)) {
@@ -58,15 +92,27 @@ public class PartialEvaluation {
 			pe.word[pe.n++] = i;
 			return pe;
 		}
+		if (cc.blanks > 0) {
+			PartialEvaluation pe = dup();
+			pe.cc.decBlank();
+			pe.word[pe.n++] = -i;
+			return pe;
+		}
 		return null;
 	}
 
 	public String translate(Trie trie) {
-		if (w == null) {
-			w = trie.translate(word);
-			word = null;
+		String t = w;
+		if (t == null) {
+			synchronized (this) {
+				if (w == null) {
+					w = trie.translate(word);
+					word = null;
+				}
+				t = w;
+			}
 		}
-		return w;
+		return t;
 	}
 
 	/**
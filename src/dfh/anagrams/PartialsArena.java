@@ -0,0 +1,307 @@
+package dfh.anagrams;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Off-heap storage for the partial evaluation graph. Each character count is
+ * a node with an integer id. When a node is expanded its edges are written to
+ * direct memory as a record: an edge count followed by one (word id, child
+ * node id) pair per edge, where a child id of -1 marks an edge that completes
+ * an anagram. The {@link PartialEvaluation} objects produced by an expansion
+ * are garbage as soon as the record is written. What stays on the heap is the
+ * table from character counts to node ids, with one key and one entry per
+ * node, the table of distinct words, and a long per node for its record
+ * offset. The edges, which outnumber the nodes many times over, take no heap.
+ * The node table is the only canonicalization table; remainder counts are not
+ * also interned while the arena is in use.
+ * <p>
+ * Nodes are expanded and stored by many threads at once. The word table and
+ * the record offsets are sealed by {@link #seal()} when the walk is done,
+ * after which both are read from arrays without locking. Direct memory is
+ * taken in chunks which start small and double up to a limit, so a small
+ * graph holds little of it until the buffers are collected.
+ * 
+ * @author houghton
+ *
+ */
+class PartialsArena {
+	private static final int FIRST_CHUNK = 1 << 16, CHUNK = 1 << 26, EDGE = 8;
+	/**
+	 * node states other than record offsets
+	 */
+	private static final long UNEXPANDED = -1, PENDING = -2, DUD = -3;
+	/**
+	 * replaced, never modified, when a chunk is added, so readers need no lock
+	 */
+	private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+	private ByteBuffer current;
+	private final Map<CharCount, Integer> ids = new ConcurrentHashMap<>();
+	private Map<String, Integer> wordIds = new ConcurrentHashMap<>();
+	private List<String> words = new ArrayList<>();
+	/**
+	 * the words by id once the arena is sealed
+	 */
+	private volatile String[] wordTable;
+	/**
+	 * node id to record offset or state
+	 */
+	private long[] offsets = new long[1024];
+	/**
+	 * the offsets once the arena is sealed
+	 */
+	private volatile long[] offsetTable;
+	private int nodes = 0;
+	private final Trie trie;
+
+	PartialsArena(Trie trie) {
+		this.trie = trie;
+		Arrays.fill(offsets, UNEXPANDED);
+	}
+
+	/**
+	 * @param cc
+	 * @return the node id for the character count
+	 */
+	int id(CharCount cc) {
+		Integer id = ids.get(cc);
+		if (id == null) {
+			synchronized (this) {
+				id = ids.get(cc);
+				if (id == null) {
+					if (nodes == offsets.length) {
+						int n = offsets.length;
+						offsets = Arrays.copyOf(offsets, n * 2);
+						Arrays.fill(offsets, n, offsets.length, UNEXPANDED);
+					}
+					id = nodes++;
+					ids.put(cc, id);
+				}
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * Marks a node as being expanded.
+	 * 
+	 * @param id
+	 * @return whether the node was previously unexpanded
+	 */
+	synchronized boolean claim(int id) {
+		if (offsets[id] != UNEXPANDED)
+			return false;
+		offsets[id] = PENDING;
+		return true;
+	}
+
+	synchronized boolean unexpanded(int id) {
+		return offsets[id] == UNEXPANDED;
+	}
+
+	/**
+	 * @param id
+	 * @return the node's record offset or state; read without locking once
+	 *         the arena is sealed
+	 */
+	long offset(int id) {
+		long[] table = offsetTable;
+		if (table != null)
+			return table[id];
+		synchronized (this) {
+			return offsets[id];
+		}
+	}
+
+	/**
+	 * Writes the expansion of a node. An empty expansion marks a dud.
+	 * 
+	 * @param id
+	 * @param list
+	 */
+	void store(int id, List<PartialEvaluation> list) {
+		if (list.isEmpty()) {
+			synchronized (this) {
+				offsets[id] = DUD;
+			}
+			return;
+		}
+		int[] edges = new int[list.size() * 2];
+		int i = 0;
+		for (PartialEvaluation pe : list) {
+			edges[i++] = wordId(pe.translate(trie));
+			edges[i++] = pe.done() ? -1 : id(pe.cc);
+		}
+		long offset = allocate(4 + list.size() * EDGE);
+		ByteBuffer b = chunk(offset);
+		int pos = position(offset);
+		b.putInt(pos, list.size());
+		pos += 4;
+		for (int e : edges) {
+			b.putInt(pos, e);
+			pos += 4;
+		}
+		synchronized (this) {
+			offsets[id] = offset;
+		}
+	}
+
+	private int wordId(String word) {
+		Integer id = wordIds.get(word);
+		if (id == null) {
+			synchronized (words) {
+				id = wordIds.get(word);
+				if (id == null) {
+					id = words.size();
+					words.add(word);
+					wordIds.put(word, id);
+				}
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * @param bytes
+	 * @return the offset of a region of this size which does not span chunks
+	 */
+	private synchronized long allocate(int bytes) {
+		if (current == null || current.remaining() < bytes) {
+			int size = current == null ? FIRST_CHUNK : Math.min(CHUNK, current.capacity() * 2);
+			current = ByteBuffer.allocateDirect(Math.max(size, bytes));
+			ByteBuffer[] ar = Arrays.copyOf(chunks, chunks.length + 1);
+			ar[ar.length - 1] = current;
+			chunks = ar;
+		}
+		long offset = ((long) (chunks.length - 1) << 32) | current.position();
+		current.position(current.position() + bytes);
+		return offset;
+	}
+
+	private ByteBuffer chunk(long offset) {
+		return chunks[(int) (offset >>> 32)];
+	}
+
+	private static int position(long offset) {
+		return (int) offset;
+	}
+
+	/**
+	 * @param offset
+	 *            record offset
+	 * @return number of edges in the record
+	 */
+	int edgeCount(long offset) {
+		return chunk(offset).getInt(position(offset));
+	}
+
+	int word(long offset, int edge) {
+		return chunk(offset).getInt(position(offset) + 4 + edge * EDGE);
+	}
+
+	/**
+	 * @param offset
+	 * @param edge
+	 * @return the child node id, or -1 if the edge completes an anagram
+	 */
+	int child(long offset, int edge) {
+		return chunk(offset).getInt(position(offset) + 8 + edge * EDGE);
+	}
+
+	/**
+	 * Fixes the word table and the offsets once no more nodes will be stored.
+	 */
+	void seal() {
+		synchronized (words) {
+			wordTable = words.toArray(new String[words.size()]);
+			words = null;
+			wordIds = null;
+		}
+		synchronized (this) {
+			offsetTable = offsets;
+		}
+	}
+
+	/**
+	 * @param id
+	 * @return the word; the arena must be sealed
+	 */
+	String word(int id) {
+		return wordTable[id];
+	}
+
+	/**
+	 * Repeatedly removes edges leading to duds until no node loses all its
+	 * edges.
+	 * 
+	 * @param afterClean
+	 * @param cancelled
+	 *            checked as the nodes are scanned; if it returns true cleaning
+	 *            stops, leaving the graph partly cleaned
+	 * @return whether cleaning finished
+	 */
+	synchronized boolean clean(AfterClean afterClean, BooleanSupplier cancelled) {
+		int initial = edges(), removedNodes = 0;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int id = 0; id < nodes; id++) {
+				if ((id & 0xFFF) == 0 && cancelled.getAsBoolean())
+					return false;
+				long offset = offsets[id];
+				if (offset < 0)
+					continue;
+				ByteBuffer b = chunk(offset);
+				int pos = position(offset), n = b.getInt(pos), kept = 0;
+				for (int e = 0; e < n; e++) {
+					int word = b.getInt(pos + 4 + e * EDGE), child = b.getInt(pos + 8 + e * EDGE);
+					if (child >= 0 && offsets[child] == DUD)
+						continue;
+					b.putInt(pos + 4 + kept * EDGE, word);
+					b.putInt(pos + 8 + kept * EDGE, child);
+					kept++;
+				}
+				b.putInt(pos, kept);
+				if (kept == 0) {
+					offsets[id] = DUD;
+					removedNodes++;
+					changed = true;
+				}
+			}
+		}
+		// republish the duds marked
+		offsetTable = offsets;
+		afterClean.run(initial, edges(), removedNodes);
+		return true;
+	}
+
+	/**
+	 * @return the number of expanded, non-dud nodes
+	 */
+	synchronized int expandedNodes() {
+		int n = 0;
+		for (int id = 0; id < nodes; id++) {
+			if (offsets[id] >= 0)
+				n++;
+		}
+		return n;
+	}
+
+	/**
+	 * @return the number of edges stored
+	 */
+	synchronized int edges() {
+		int n = 0;
+		for (int id = 0; id < nodes; id++) {
+			long offset = offsets[id];
+			if (offset >= 0)
+				n += edgeCount(offset);
+		}
+		return n;
+	}
+}
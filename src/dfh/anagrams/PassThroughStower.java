@@ -10,18 +10,14 @@ public class PassThroughStower extends AnagramStower {
 		super(out);
 	}
 
+	public PassThroughStower(AnagramWriter out) {
+		super(out);
+	}
+
 	@Override
 	public void handle(List<String> anagram) {
 		if (!test.test()) {
-			int last = anagram.size() - 1;
-			for (int i = 0; i < anagram.size(); i++) {
-				String word = anagram.get(i);
-				out.print(word);
-				if (i == last)
-					out.println();
-				else
-					out.print(' ');
-			}
+			out.write(anagram);
 			n += 1;
 		}
 	}
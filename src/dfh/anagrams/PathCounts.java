@@ -0,0 +1,384 @@
+package dfh.anagrams;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Counts the anagrams below each character count in a cleaned partial
+ * evaluation graph. With these counts every anagram has a rank, and an anagram
+ * can be recovered from its rank by a single weighted descent through the
+ * graph, choosing at each node the edge whose range of ranks contains the one
+ * sought. This makes it cheap to draw anagrams uniformly at random or to jump
+ * to an arbitrary offset in the enumeration order.
+ * <p>
+ * An anagram of several words may have a path for more than one order of its
+ * words, since the edges of a node are all the words which use its pivot
+ * character, and an anagram may have several such words. So only canonical
+ * paths are counted: those which are first in rank order among the paths
+ * spelling the same anagram. A path is canonical if at each node it takes the
+ * least of its remaining words which is an edge of that node; every anagram has
+ * exactly one. Whether a path can still be canonical depends on the words it
+ * has passed over, so the counts are kept for states, each a character count
+ * along with the words forbidden below it: those passed over at an earlier
+ * node which still fit in the count. Since the pivot character is usually one
+ * the count holds only once, almost every state forbids nothing, and there are
+ * few more states than nodes.
+ *
+ * @author houghton
+ *
+ */
+class PathCounts {
+	/**
+	 * a state's edges along with the cumulative anagram counts through them
+	 */
+	static class Node {
+		final PartialEvaluation[] edges;
+		/**
+		 * prefix[i] is the number of anagrams through edges 0 through i
+		 */
+		final BigInteger[] prefix;
+		/**
+		 * the state below each edge; null if the edge completes an anagram or
+		 * is forbidden
+		 */
+		final Node[] children;
+
+		Node(PartialEvaluation[] edges) {
+			this.edges = edges;
+			this.prefix = new BigInteger[edges.length];
+			this.children = new Node[edges.length];
+		}
+
+		BigInteger total() {
+			return prefix.length == 0 ? BigInteger.ZERO : prefix[prefix.length - 1];
+		}
+
+		/**
+		 * @param rank
+		 *            a rank less than {@link #total()}
+		 * @return the index of the edge whose range contains the rank
+		 */
+		int edge(BigInteger rank) {
+			int lo = 0, hi = prefix.length - 1;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (prefix[mid].compareTo(rank) > 0)
+					hi = mid;
+				else
+					lo = mid + 1;
+			}
+			return lo;
+		}
+
+		/**
+		 * @param i
+		 * @return the number of anagrams through edges before i
+		 */
+		BigInteger before(int i) {
+			return i == 0 ? BigInteger.ZERO : prefix[i - 1];
+		}
+
+		/**
+		 * @param i
+		 * @return the number of anagrams through edge i
+		 */
+		BigInteger count(int i) {
+			return prefix[i].subtract(before(i));
+		}
+	}
+
+	/**
+	 * a character count with the words a canonical path may no longer take
+	 * below it, in order, and the characters each uses
+	 */
+	private static class State {
+		final CharCount cc;
+		final String[] forbidden;
+		final CharCount[] uses;
+
+		State(CharCount cc, String[] forbidden, CharCount[] uses) {
+			this.cc = cc;
+			this.forbidden = forbidden;
+			this.uses = uses;
+		}
+
+		boolean forbids(String word) {
+			return Arrays.binarySearch(forbidden, word) >= 0;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof State))
+				return false;
+			State s = (State) o;
+			return cc.equals(s.cc) && Arrays.equals(forbidden, s.forbidden);
+		}
+
+		@Override
+		public int hashCode() {
+			return cc.hashCode() * 31 + Arrays.hashCode(forbidden);
+		}
+	}
+
+	private static final String[] NONE = new String[0];
+	private static final CharCount[] NO_USES = new CharCount[0];
+
+	private final Map<CharCount, List<PartialEvaluation>> partials;
+	private final Function<PartialEvaluation, String> words;
+	private final Map<State, Node> nodes = new HashMap<>();
+
+	/**
+	 * @param partials
+	 *            a cleaned partial evaluation graph
+	 * @param words
+	 *            the word of a partial evaluation; used to recognize canonical
+	 *            paths
+	 */
+	PathCounts(Map<CharCount, List<PartialEvaluation>> partials, Function<PartialEvaluation, String> words) {
+		this.partials = partials;
+		this.words = words;
+	}
+
+	/**
+	 * @param cc
+	 * @return the node for the given character count, with its counts
+	 *         calculated; null if the count is not in the graph
+	 */
+	Node node(CharCount cc) {
+		return node(new State(cc, NONE, NO_USES));
+	}
+
+	private Node node(State state) {
+		Node n = nodes.get(state);
+		if (n == null) {
+			List<PartialEvaluation> list = partials.get(state.cc);
+			if (list == null)
+				return null;
+			n = new Node(list.toArray(new PartialEvaluation[list.size()]));
+			State[] below = below(state, n.edges);
+			BigInteger sum = BigInteger.ZERO;
+			for (int i = 0; i < n.edges.length; i++) {
+				PartialEvaluation pe = n.edges[i];
+				if (below[i] == null) {
+					// forbidden
+				} else if (pe.done()) {
+					sum = sum.add(BigInteger.ONE);
+				} else {
+					Node child = node(below[i]);
+					if (child != null) {
+						n.children[i] = child;
+						sum = sum.add(child.total());
+					}
+				}
+				n.prefix[i] = sum;
+			}
+			nodes.put(state, n);
+		}
+		return n;
+	}
+
+	/**
+	 * @param state
+	 * @param edges
+	 *            the edges of the state's character count
+	 * @return the state below each edge; null where the state forbids the
+	 *         edge's word
+	 */
+	private State[] below(State state, PartialEvaluation[] edges) {
+		CharCount cc = state.cc;
+		String[] w = new String[edges.length];
+		CharCount[] uses = new CharCount[edges.length];
+		for (int i = 0; i < edges.length; i++) {
+			w[i] = words.apply(edges[i]);
+			uses[i] = cc.minus(edges[i].cc);
+		}
+		// if some character every edge uses cannot be used twice, no edge
+		// passed over can follow another
+		boolean pairs = edges.length > 1;
+		int[] common = Arrays.copyOf(cc.counts, cc.counts.length);
+		for (CharCount u : uses) {
+			for (int c = 0; c < common.length; c++)
+				common[c] = Math.min(common[c], u.counts[c]);
+		}
+		for (int c = 0; pairs && c < common.length; c++) {
+			if (common[c] > 0 && common[c] * 2 > cc.counts[c])
+				pairs = false;
+		}
+		State[] below = new State[edges.length];
+		for (int i = 0; i < edges.length; i++) {
+			if (state.forbids(w[i]))
+				continue;
+			CharCount rest = edges[i].cc;
+			if (rest.done()) {
+				below[i] = new State(rest, NONE, NO_USES);
+				continue;
+			}
+			TreeMap<String, CharCount> forbidden = new TreeMap<>();
+			for (int j = 0; j < state.forbidden.length; j++) {
+				if (rest.contains(state.uses[j]))
+					forbidden.put(state.forbidden[j], state.uses[j]);
+			}
+			if (pairs) {
+				for (int j = 0; j < edges.length; j++) {
+					if (w[j].compareTo(w[i]) < 0 && rest.contains(uses[j]))
+						forbidden.put(w[j], uses[j]);
+				}
+			}
+			below[i] = forbidden.isEmpty() ? new State(rest, NONE, NO_USES)
+					: new State(rest, forbidden.keySet().toArray(NONE), forbidden.values().toArray(NO_USES));
+		}
+		return below;
+	}
+
+	/**
+	 * @param cc
+	 * @return the number of distinct anagrams of the character count
+	 */
+	BigInteger count(CharCount cc) {
+		Node n = node(cc);
+		return n == null ? BigInteger.ZERO : n.total();
+	}
+
+	/**
+	 * Recovers an anagram from its rank.
+	 *
+	 * @param cc
+	 *            root of the paths
+	 * @param rank
+	 *            a number less than {@link #count(CharCount)}
+	 * @return the edges of the anagram's canonical path
+	 * @throws IllegalArgumentException
+	 *             if the rank is negative or too large
+	 */
+	List<PartialEvaluation> path(CharCount cc, BigInteger rank) {
+		checkRank(count(cc), rank);
+		List<PartialEvaluation> path = new ArrayList<>();
+		Node n = node(cc);
+		while (true) {
+			int i = n.edge(rank);
+			PartialEvaluation pe = n.edges[i];
+			path.add(pe);
+			if (pe.done())
+				return path;
+			rank = rank.subtract(n.before(i));
+			n = n.children[i];
+		}
+	}
+
+	/**
+	 * @param count
+	 * @param rank
+	 * @throws IllegalArgumentException
+	 *             unless 0 &lt;= rank &lt; count
+	 */
+	private static void checkRank(BigInteger count, BigInteger rank) {
+		if (rank.signum() < 0 || rank.compareTo(count) >= 0)
+			throw new IllegalArgumentException("rank " + rank + " is outside [0, " + count + ")");
+	}
+
+	/**
+	 * Converts a rank into the indices of the edges along its canonical path.
+	 * Ranks follow the lexicographic order of these index sequences.
+	 *
+	 * @param cc
+	 *            root of the paths
+	 * @param rank
+	 *            a number less than {@link #count(CharCount)}
+	 * @return the index of each edge traversed among its node's edges
+	 * @throws IllegalArgumentException
+	 *             if the rank is negative or too large
+	 */
+	int[] indices(CharCount cc, BigInteger rank) {
+		checkRank(count(cc), rank);
+		List<Integer> indices = new ArrayList<>();
+		Node n = node(cc);
+		while (true) {
+			int j = n.edge(rank);
+			indices.add(j);
+			PartialEvaluation pe = n.edges[j];
+			if (pe.done())
+				break;
+			rank = rank.subtract(n.before(j));
+			n = n.children[j];
+		}
+		int[] ar = new int[indices.size()];
+		for (int i = 0; i < ar.length; i++)
+			ar[i] = indices.get(i);
+		return ar;
+	}
+
+	/**
+	 * The inverse of {@link #indices(CharCount, BigInteger)}.
+	 *
+	 * @param cc
+	 *            root of the paths
+	 * @param indices
+	 *            edge indices
+	 * @return the rank of the anagram, or null if the indices do not describe
+	 *         a complete canonical path
+	 */
+	BigInteger rank(CharCount cc, int[] indices) {
+		BigInteger rank = BigInteger.ZERO;
+		Node n = node(cc);
+		for (int i = 0; i < indices.length; i++) {
+			int j = indices[i];
+			if (n == null || j < 0 || j >= n.edges.length || n.count(j).signum() == 0)
+				return null;
+			rank = rank.add(n.before(j));
+			if (n.edges[j].done())
+				return i == indices.length - 1 ? rank : null;
+			n = n.children[j];
+		}
+		return null;
+	}
+
+	/**
+	 * Draws distinct ranks uniformly using Floyd's algorithm.
+	 *
+	 * @param bound
+	 * @param n
+	 * @param random
+	 * @return at most n distinct numbers from [0, bound) in random order
+	 */
+	static List<BigInteger> distinct(BigInteger bound, int n, Random random) {
+		List<BigInteger> ranks;
+		if (bound.compareTo(BigInteger.valueOf(n)) <= 0) {
+			ranks = new ArrayList<>(bound.intValue());
+			for (int i = 0; i < bound.intValue(); i++)
+				ranks.add(BigInteger.valueOf(i));
+		} else {
+			Set<BigInteger> chosen = new HashSet<>(n * 2);
+			for (BigInteger j = bound.subtract(BigInteger.valueOf(n)); j.compareTo(bound) < 0; j = j.add(BigInteger.ONE)) {
+				BigInteger t = uniform(j.add(BigInteger.ONE), random);
+				if (!chosen.add(t))
+					chosen.add(j);
+			}
+			ranks = new ArrayList<>(chosen);
+		}
+		Collections.shuffle(ranks, random);
+		return ranks;
+	}
+
+	/**
+	 * @param bound
+	 * @param random
+	 * @return a number drawn uniformly from [0, bound)
+	 */
+	static BigInteger uniform(BigInteger bound, Random random) {
+		BigInteger r;
+		do {
+			r = new BigInteger(bound.bitLength(), random);
+		} while (r.compareTo(bound) >= 0);
+		return r;
+	}
+}
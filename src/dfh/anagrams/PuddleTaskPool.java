@@ -0,0 +1,32 @@
+package dfh.anagrams;
+
+import dfh.thread.ThreadPuddle;
+
+/**
+ * A {@link TaskPool} with its own threads.
+ * 
+ * @author houghton
+ *
+ */
+class PuddleTaskPool implements TaskPool {
+	private final ThreadPuddle puddle;
+
+	PuddleTaskPool(int threads) {
+		puddle = new ThreadPuddle(threads);
+	}
+
+	@Override
+	public void run(Runnable r) {
+		puddle.run(r);
+	}
+
+	@Override
+	public void flush() {
+		puddle.flush();
+	}
+
+	@Override
+	public void die() {
+		puddle.die();
+	}
+}
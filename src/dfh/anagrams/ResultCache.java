@@ -0,0 +1,256 @@
+package dfh.anagrams;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Memory of the results of completed searches, for an {@link AnagramEngine}.
+ * Phrases which differ only in case, punctuation, or word order have the same
+ * base character count and hence the same anagrams, so results are keyed by
+ * that count, the options which affect them, and the version of the
+ * dictionary. A result set is held as the text encoding of its anagrams unless
+ * that exceeds the per-entry limit, in which case only its size is held. Least
+ * recently used entries are evicted to keep the estimated total within the
+ * byte budget.
+ * 
+ * @author houghton
+ *
+ */
+public class ResultCache {
+	/**
+	 * rough heap cost of an entry apart from its encoded anagrams
+	 */
+	private static final int OVERHEAD = 128;
+
+	private final long maxBytes;
+	private final int maxEntryBytes;
+	private long bytes = 0;
+	private int hits = 0, misses = 0;
+	/**
+	 * the dictionary version results are accepted for; see
+	 * {@link #retainVersion(long)}
+	 */
+	private long version;
+	private boolean versioned = false;
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * @param maxBytes
+	 *            estimated heap the cache may occupy
+	 * @param maxEntryBytes
+	 *            size of the largest encoded result set kept in full; larger
+	 *            sets are remembered only by their size
+	 */
+	public ResultCache(long maxBytes, int maxEntryBytes) {
+		this.maxBytes = maxBytes;
+		this.maxEntryBytes = maxEntryBytes;
+	}
+
+	/**
+	 * A cache with one sixteenth of its budget as the per-entry limit.
+	 * 
+	 * @param maxBytes
+	 */
+	public ResultCache(long maxBytes) {
+		this(maxBytes, (int) Math.min(Integer.MAX_VALUE, maxBytes / 16));
+	}
+
+	/**
+	 * The identity of a result set.
+	 */
+	static final class Key {
+		private final long version;
+		private final CharCount base;
+		private final boolean unique, sorted, incremental;
+		private final int limit;
+
+		/**
+		 * @param version
+		 * @param base
+		 * @param query
+		 *            its options which affect which anagrams are found, or the
+		 *            order in which they are found, are part of the key
+		 */
+		Key(long version, CharCount base, AnagramQuery query) {
+			this.version = version;
+			this.base = base;
+			this.unique = query.unique();
+			this.sorted = query.sorted();
+			this.incremental = query.incremental();
+			this.limit = query.limit();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return version == k.version && unique == k.unique && sorted == k.sorted && incremental == k.incremental
+					&& limit == k.limit && base.equals(k.base);
+		}
+
+		@Override
+		public int hashCode() {
+			return base.hashCode() * 31 + Arrays.hashCode(new Object[] { version, unique, sorted, incremental, limit });
+		}
+	}
+
+	/**
+	 * A remembered result set.
+	 */
+	static final class Entry {
+		/**
+		 * the anagrams in {@link AnagramFormat#TEXT}; null if only the count is
+		 * kept
+		 */
+		final byte[] encoded;
+		final int count;
+
+		Entry(byte[] encoded, int count) {
+			this.encoded = encoded;
+			this.count = count;
+		}
+
+		int weight() {
+			return OVERHEAD + (encoded == null ? 0 : encoded.length);
+		}
+
+		/**
+		 * @return the anagrams, in the order they were recorded
+		 */
+		List<List<String>> anagrams() {
+			List<List<String>> anagrams = new ArrayList<>(count);
+			String text = new String(encoded, StandardCharsets.UTF_8);
+			int start = 0;
+			for (int end = text.indexOf('\n'); end > -1; start = end + 1, end = text.indexOf('\n', start))
+				anagrams.add(Arrays.asList(text.substring(start, end).split(" ")));
+			return anagrams;
+		}
+	}
+
+	/**
+	 * Tees a search's anagrams into an encoding for the cache, giving up on the
+	 * encoding, but not the count, once it passes the per-entry limit.
+	 */
+	class Recorder extends AnagramWriter {
+		private final AnagramWriter out;
+		private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		private int count = 0;
+
+		Recorder(AnagramWriter out) {
+			super(AnagramFormat.TEXT);
+			this.out = out;
+		}
+
+		@Override
+		public void write(List<String> anagram) {
+			synchronized (this) {
+				count++;
+				if (buffer != null) {
+					byte[] bytes = format.encode(anagram);
+					if (buffer.size() + bytes.length > maxEntryBytes)
+						buffer = null;
+					else
+						buffer.write(bytes, 0, bytes.length);
+				}
+			}
+			out.write(anagram);
+		}
+
+		@Override
+		public void flush() {
+			out.flush();
+		}
+
+		@Override
+		public void close() {
+		}
+
+		synchronized Entry entry() {
+			return new Entry(buffer == null ? null : buffer.toByteArray(), count);
+		}
+	}
+
+	synchronized Entry get(Key key) {
+		Entry e = entries.get(key);
+		if (e == null)
+			misses++;
+		else
+			hits++;
+		return e;
+	}
+
+	/**
+	 * Remembers a result set, unless it was computed against a dictionary
+	 * other than the one last passed to {@link #retainVersion(long)}, as
+	 * happens when the dictionary is swapped while a search is running.
+	 * 
+	 * @param key
+	 * @param entry
+	 */
+	synchronized void put(Key key, Entry entry) {
+		if (versioned && key.version != version)
+			return;
+		if (entry.weight() > maxBytes)
+			return;
+		Entry old = entries.put(key, entry);
+		if (old != null)
+			bytes -= old.weight();
+		bytes += entry.weight();
+		for (Iterator<Entry> i = entries.values().iterator(); bytes > maxBytes && i.hasNext();) {
+			bytes -= i.next().weight();
+			i.remove();
+		}
+	}
+
+	/**
+	 * Drops every result computed against any dictionary but the given
+	 * version, and from now on accepts results only for that version.
+	 * 
+	 * @param version
+	 */
+	public synchronized void retainVersion(long version) {
+		this.version = version;
+		versioned = true;
+		for (Iterator<Map.Entry<Key, Entry>> i = entries.entrySet().iterator(); i.hasNext();) {
+			Map.Entry<Key, Entry> e = i.next();
+			if (e.getKey().version != version) {
+				bytes -= e.getValue().weight();
+				i.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * @return number of result sets held
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return estimated heap occupied
+	 */
+	public synchronized long bytes() {
+		return bytes;
+	}
+
+	public synchronized int hits() {
+		return hits;
+	}
+
+	public synchronized int misses() {
+		return misses;
+	}
+}
@@ -0,0 +1,47 @@
+package dfh.anagrams;
+
+/**
+ * Count array operations one element at a time.
+ * 
+ * @author houghton
+ *
+ */
+class ScalarCountOps extends CountOps {
+
+	@Override
+	boolean equal(int[] a, int[] b) {
+		for (int i = 0; i < a.length; i++) {
+			if (a[i] != b[i])
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	int hash(int[] a) {
+		int h = 1;
+		for (int c : a)
+			h = 31 * h + c;
+		return h;
+	}
+
+	@Override
+	boolean contains(int[] a, int[] b) {
+		for (int i = 0; i < a.length; i++) {
+			if (b[i] > a[i])
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	void subtract(int[] a, int[] b, int[] out) {
+		for (int i = 0; i < a.length; i++)
+			out[i] = a[i] - b[i];
+	}
+
+	@Override
+	String name() {
+		return "scalar";
+	}
+}
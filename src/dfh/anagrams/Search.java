@@ -0,0 +1,218 @@
+package dfh.anagrams;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * A handle on a running anagram search. A search may be cancelled at any time
+ * from any thread, or it may be given a deadline. In either case the workers
+ * stop at the next opportunity, in whatever phase they are in, and the results
+ * gathered so far are handed to the stower. Once the search is finished the
+ * handle holds the statistics gathered along the way.
+ * 
+ * @author houghton
+ *
+ */
+public class Search {
+	public enum Phase {
+		WALK, CLEAN, COLLECT, DONE
+	}
+
+	/**
+	 * How the partial evaluation graph was held.
+	 */
+	public enum Strategy {
+		/**
+		 * the whole graph was cached on the heap
+		 */
+		FULL_CACHE,
+		/**
+		 * the whole graph was cached in direct memory
+		 */
+		OFF_HEAP,
+		/**
+		 * the graph was cached only as far as the memory budget allowed; the
+		 * rest was recomputed as needed during a depth-first search
+		 */
+		BOUNDED_CACHE
+	}
+
+	private final long start = System.currentTimeMillis();
+	private final long deadline;
+	private volatile boolean cancelled = false, timedOut = false, cached = false;
+	private volatile Phase phase = Phase.WALK;
+	private final CountDownLatch finished = new CountDownLatch(1);
+	private Throwable failure;
+	private volatile int characterCounts, partialEvaluations, anagrams;
+	private volatile long elapsed;
+	private volatile String cursor;
+	private volatile Strategy strategy = Strategy.FULL_CACHE;
+	private volatile String strategyReason = "default";
+
+	/**
+	 * @param timeout
+	 *            milliseconds the search may run; 0 means there is no deadline
+	 */
+	Search(long timeout) {
+		deadline = timeout > 0 ? start + timeout : 0;
+	}
+
+	/**
+	 * Runs the search body on its own thread or on the executor, if one is
+	 * provided.
+	 * 
+	 * @param body
+	 * @param executor
+	 *            may be null
+	 */
+	void start(Runnable body, Executor executor) {
+		Runnable r = () -> {
+			try {
+				body.run();
+			} catch (Throwable e) {
+				failure = e;
+			} finally {
+				elapsed = System.currentTimeMillis() - start;
+				finished.countDown();
+			}
+		};
+		if (executor == null)
+			new Thread(r, "anagram search").start();
+		else
+			executor.execute(r);
+	}
+
+	/**
+	 * Asks the search to stop as soon as possible.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * @return whether the search has been cancelled or has passed its deadline
+	 */
+	public boolean isCancelled() {
+		if (!cancelled && deadline > 0 && System.currentTimeMillis() > deadline) {
+			timedOut = true;
+			cancelled = true;
+		}
+		return cancelled;
+	}
+
+	/**
+	 * Blocks until the search is finished.
+	 * 
+	 * @return this handle
+	 */
+	public Search await() {
+		try {
+			finished.await();
+		} catch (InterruptedException e) {
+			cancel();
+			Thread.currentThread().interrupt();
+		}
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if (failure instanceof Error)
+			throw (Error) failure;
+		return this;
+	}
+
+	public boolean isDone() {
+		return finished.getCount() == 0;
+	}
+
+	void phase(Phase phase) {
+		this.phase = phase;
+	}
+
+	void record(int characterCounts, int partialEvaluations) {
+		this.characterCounts = characterCounts;
+		this.partialEvaluations = partialEvaluations;
+	}
+
+	void anagrams(int anagrams) {
+		this.anagrams = anagrams;
+	}
+
+	void strategy(Strategy strategy, String reason) {
+		this.strategy = strategy;
+		this.strategyReason = reason;
+	}
+
+	public Strategy strategy() {
+		return strategy;
+	}
+
+	/**
+	 * @return why the strategy was chosen
+	 */
+	public String strategyReason() {
+		return strategyReason;
+	}
+
+	void cached(boolean cached) {
+		this.cached = cached;
+	}
+
+	/**
+	 * @return whether the anagrams were replayed from a {@link ResultCache}
+	 *         rather than searched for
+	 */
+	public boolean cached() {
+		return cached;
+	}
+
+	void cursor(String cursor) {
+		this.cursor = cursor;
+	}
+
+	/**
+	 * @return for a paged search, the cursor at which the next page begins, or
+	 *         null if there are no more anagrams
+	 */
+	public String cursor() {
+		return cursor;
+	}
+
+	/**
+	 * @return the phase the search was in when it stopped, or
+	 *         {@link Phase#DONE} if it ran to completion
+	 */
+	public Phase phase() {
+		return phase;
+	}
+
+	public boolean timedOut() {
+		return timedOut;
+	}
+
+	/**
+	 * @return number of character counts in the cache when the walk stopped
+	 */
+	public int characterCounts() {
+		return characterCounts;
+	}
+
+	/**
+	 * @return number of partial evaluations in the cache when the walk stopped
+	 */
+	public int partialEvaluations() {
+		return partialEvaluations;
+	}
+
+	/**
+	 * @return number of anagrams the stower accepted
+	 */
+	public int anagrams() {
+		return anagrams;
+	}
+
+	/**
+	 * @return milliseconds from the start to the end of the search
+	 */
+	public long elapsed() {
+		return elapsed;
+	}
+}
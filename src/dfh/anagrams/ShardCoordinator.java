@@ -0,0 +1,208 @@
+package dfh.anagrams;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Spreads a search over several {@link ShardWorker} processes on this machine,
+ * so the partial evaluation graph is split among several heaps. Each first
+ * word extractable from the phrase roots a shard. Each worker is fed shards
+ * one at a time over a pipe and streams their anagrams back; these are merged
+ * into a single stower, which will remove duplicates if it is a uniquing
+ * stower. If a worker dies, the shard it was working on is handed to a fresh
+ * worker, which skips the anagrams already received.
+ * 
+ * @author houghton
+ *
+ */
+public class ShardCoordinator {
+	private final File dictionary;
+	private final String phrase;
+	private final int workers, threads;
+	private final AnagramStower stower;
+	private final Deque<int[]> pending = new LinkedList<>();
+	private final List<Integer> failed = Collections.synchronizedList(new ArrayList<>());
+	private int maxAttempts = 3;
+	private long deadline = 0;
+
+	/**
+	 * @param dictionary
+	 *            word list the workers will load
+	 * @param phrase
+	 * @param workers
+	 *            number of worker processes
+	 * @param threads
+	 *            number of threads each worker may use
+	 * @param stower
+	 *            receives the merged anagrams
+	 */
+	public ShardCoordinator(File dictionary, String phrase, int workers, int threads, AnagramStower stower) {
+		this.dictionary = dictionary;
+		this.phrase = phrase;
+		this.workers = workers;
+		this.threads = threads;
+		this.stower = stower;
+	}
+
+	/**
+	 * @param timeout
+	 *            milliseconds the search may run; 0 means there is no deadline
+	 */
+	public void setTimeout(long timeout) {
+		deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+	}
+
+	/**
+	 * @param maxAttempts
+	 *            number of workers to try on a shard before giving up on it
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * Runs the search to completion.
+	 * 
+	 * @param shards
+	 *            number of shards; see {@link TrieWalker#roots(String)}
+	 * @param stowerAction
+	 */
+	public void run(int shards, Runnable stowerAction) {
+		for (int i = 0; i < shards; i++)
+			pending.add(new int[] { i, 0, 0 });
+		List<Thread> managers = new ArrayList<>(workers);
+		for (int i = 0; i < Math.min(workers, shards); i++) {
+			Thread t = new Thread(this::manage, "shard manager " + i);
+			managers.add(t);
+			t.start();
+		}
+		for (Thread t : managers) {
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		stower.done(stowerAction);
+	}
+
+	/**
+	 * @return shards abandoned after too many workers failed on them
+	 */
+	public List<Integer> failedShards() {
+		return failed;
+	}
+
+	private boolean stopped() {
+		return stower.test.test() || deadline > 0 && System.currentTimeMillis() > deadline;
+	}
+
+	/**
+	 * Starts a worker JVM configured like this one: it gets this JVM's options,
+	 * such as --add-modules for the vector API and heap settings, except those
+	 * which claim a resource only one process can hold, a debugger port or a
+	 * flight recording file.
+	 */
+	private Process startWorker() throws IOException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		List<String> command = new ArrayList<>();
+		command.add(java);
+		for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			if (arg.startsWith("-agentlib:jdwp") || arg.startsWith("-Xrunjdwp")
+					|| arg.startsWith("-XX:StartFlightRecording"))
+				continue;
+			command.add(arg);
+		}
+		command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), ShardWorker.class.getName(),
+				dictionary.getPath(), Integer.toString(threads), phrase));
+		ProcessBuilder pb = new ProcessBuilder(command);
+		pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+		return pb.start();
+	}
+
+	/**
+	 * Feeds shards to one worker process at a time, replacing the process if
+	 * it dies.
+	 */
+	private void manage() {
+		Process p = null;
+		BufferedReader in = null;
+		Writer out = null;
+		try {
+			while (!stopped()) {
+				int[] task;
+				synchronized (pending) {
+					task = pending.poll();
+				}
+				if (task == null)
+					break;
+				int shard = task[0], received = task[1];
+				try {
+					if (p == null) {
+						p = startWorker();
+						in = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8));
+						out = new OutputStreamWriter(p.getOutputStream(), StandardCharsets.UTF_8);
+					}
+					out.write(shard + " " + received + "\n");
+					out.flush();
+					boolean finished = false;
+					for (String line; !stopped() && (line = in.readLine()) != null;) {
+						if (line.startsWith("a ")) {
+							List<String> anagram = Arrays.asList(line.substring(2).split(" "));
+							synchronized (stower) {
+								stower.handle(anagram);
+							}
+							received++;
+						} else if (line.equals("d " + shard)) {
+							finished = true;
+							break;
+						}
+					}
+					if (finished || stopped())
+						continue;
+					throw new IOException("worker exited");
+				} catch (IOException e) {
+					if (p != null)
+						p.destroyForcibly();
+					p = null;
+					if (++task[2] >= maxAttempts) {
+						failed.add(shard);
+					} else {
+						task[1] = received;
+						synchronized (pending) {
+							pending.addFirst(task);
+						}
+					}
+				}
+			}
+		} finally {
+			if (p != null) {
+				if (stopped()) {
+					p.destroyForcibly();
+				} else {
+					try {
+						out.close();
+						p.waitFor();
+					} catch (IOException e) {
+						p.destroyForcibly();
+					} catch (InterruptedException e) {
+						p.destroyForcibly();
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}
+	}
+}
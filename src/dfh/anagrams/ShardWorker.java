@@ -0,0 +1,87 @@
+package dfh.anagrams;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * A worker process in a sharded search. It is started by a
+ * {@link ShardCoordinator} with the dictionary, the number of threads to use,
+ * and the phrase as arguments. It then reads commands from standard in, one per
+ * line, each a shard number and the number of that shard's anagrams to skip.
+ * For each it writes the shard's anagrams to standard out, one per line
+ * prefixed with {@code a}, followed by {@code d} and the shard number. A
+ * shard's anagrams are produced in the same order on every run, so a shard
+ * whose worker died can be resumed by another worker where the first left off.
+ * The worker exits when standard in is closed.
+ * 
+ * @author houghton
+ *
+ */
+public class ShardWorker {
+	public static void main(String[] args) throws IOException {
+		if (args.length != 3) {
+			System.err.println("USAGE: " + ShardWorker.class.getName() + " <dictionary> <threads> <phrase>");
+			System.exit(1);
+		}
+		Trie trie = Trie.load(new File(args[0]), StringNormalizer.DEFAULT);
+		int threads = Integer.parseInt(args[1]);
+		String phrase = args[2];
+		final Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+		final int[] skip = { 0 };
+		AnagramWriter writer = new AnagramWriter(AnagramFormat.TEXT) {
+			@Override
+			public void write(List<String> anagram) {
+				if (skip[0] > 0) {
+					skip[0]--;
+					return;
+				}
+				try {
+					out.write("a ");
+					for (int i = 0; i < anagram.size(); i++) {
+						if (i > 0)
+							out.write(' ');
+						out.write(anagram.get(i));
+					}
+					out.write('\n');
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+
+			@Override
+			public void flush() {
+				try {
+					out.flush();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+
+			@Override
+			public void close() throws IOException {
+				out.close();
+			}
+		};
+		TrieWalker walker = new TrieWalker(trie, new PassThroughStower(writer), threads);
+		List<PartialEvaluation> roots = walker.roots(phrase);
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+		for (String line; (line = in.readLine()) != null;) {
+			String[] command = line.trim().split(" ");
+			int shard = Integer.parseInt(command[0]);
+			skip[0] = Integer.parseInt(command[1]);
+			walker.shard(roots.get(shard), () -> {
+			}).await();
+			out.write("d " + shard + "\n");
+			out.flush();
+		}
+		writer.close();
+	}
+}
@@ -12,6 +12,10 @@ public class SortedUniqStower extends AnagramStower {
 		super(out);
 	}
 
+	public SortedUniqStower(AnagramWriter out) {
+		super(out);
+	}
+
 	final static Comparator<List<String>> cmp = (a, b) -> {
 		int i = 0;
 		while (true) {
@@ -50,15 +54,7 @@ public class SortedUniqStower extends AnagramStower {
 	public void done(Runnable beforeDone) {
 		beforeDone.run();
 		for (List<String> anagram : anagrams) {
-			int last = anagram.size() - 1;
-			for (int i = 0; i < anagram.size(); i++) {
-				String word = anagram.get(i);
-				out.print(word);
-				if (i == last)
-					out.println();
-				else
-					out.print(' ');
-			}
+			out.write(anagram);
 		}
 		out.flush();
 	}
@@ -0,0 +1,48 @@
+package dfh.anagrams;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * Writes anagrams to a stream on the calling thread.
+ * 
+ * @author houghton
+ *
+ */
+public class StreamAnagramWriter extends AnagramWriter {
+	private final OutputStream out;
+
+	public StreamAnagramWriter(OutputStream out) {
+		this(out, AnagramFormat.TEXT);
+	}
+
+	public StreamAnagramWriter(OutputStream out, AnagramFormat format) {
+		super(format);
+		this.out = out;
+	}
+
+	@Override
+	public void write(List<String> anagram) {
+		try {
+			out.write(format.encode(anagram));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void flush() {
+		try {
+			out.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
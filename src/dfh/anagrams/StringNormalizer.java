@@ -1,5 +1,10 @@
 package dfh.anagrams;
 
 public interface StringNormalizer {
+	/**
+	 * strips everything but letters and digits and lowercases what remains
+	 */
+	StringNormalizer DEFAULT = (word) -> word.replaceAll("[^\\p{L}\\p{Nd}]+", "").toLowerCase();
+
 	public String normalize(String word);
 }
@@ -0,0 +1,19 @@
+package dfh.anagrams;
+
+/**
+ * Receives the words found by {@link Trie#subwords(String, int, int, SubwordSink)}.
+ * 
+ * @author houghton
+ *
+ */
+public interface SubwordSink {
+	/**
+	 * @param word
+	 *            buffer holding the word; it is reused for the next word, so
+	 *            its contents must be copied if they are to be kept
+	 * @param length
+	 *            number of characters of the buffer in the word
+	 * @return whether to continue the search
+	 */
+	boolean accept(char[] word, int length);
+}
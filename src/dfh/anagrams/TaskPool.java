@@ -0,0 +1,26 @@
+package dfh.anagrams;
+
+/**
+ * The threads a {@link TrieWalker} farms its work out to.
+ * 
+ * @author houghton
+ *
+ */
+interface TaskPool {
+	/**
+	 * Schedules a task.
+	 * 
+	 * @param r
+	 */
+	void run(Runnable r);
+
+	/**
+	 * Blocks until every task scheduled so far is done.
+	 */
+	void flush();
+
+	/**
+	 * Releases any threads belonging to this pool.
+	 */
+	void die();
+}
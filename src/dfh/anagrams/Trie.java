@@ -1,37 +1,539 @@
 package dfh.anagrams;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.ToDoubleFunction;
 
 public class Trie {
+	/**
+	 * Character counts with this many characters or fewer are expanded by
+	 * looking up their sub-counts in the signature index rather than by
+	 * descending the trie. The number of sub-counts grows exponentially with
+	 * the count, so past some size the descent is cheaper. Measured with
+	 * {@link LoadBenchmark} on a 100,000 word list and phrases of 8 to 15
+	 * letters, the walk was fastest with thresholds from 6 to 10; with 0, which
+	 * always descends, or with 12 and up, it took a third again as long or
+	 * more. The system property {@code anagrams.directLookup} overrides the
+	 * default of 8.
+	 */
+	public static final int DIRECT_LOOKUP_THRESHOLD = Integer.getInteger("anagrams.directLookup", 8);
+	/**
+	 * the character which stands for a blank in a phrase
+	 */
+	public static final char BLANK = '?';
+	private static final int[][] NO_WORDS = new int[0][];
 	TrieNode root = new TrieNode();
 	CharMap cm;
 	StringNormalizer normalizer;
+	/**
+	 * words accumulated by signature before the trie is frozen
+	 */
+	private Map<CharCount, List<int[]>> pendingSignatures = new HashMap<>();
+	/**
+	 * map from a character count to all words which consist of exactly those
+	 * characters; never modified once the trie is frozen, so tries made by
+	 * {@link #withChanges(Collection, Collection)} share it
+	 */
+	private Map<CharCount, int[][]> signatures;
+	/**
+	 * the entries which differ from {@link #signatures} after
+	 * {@link #withChanges(Collection, Collection)}, with an empty array for a
+	 * signature no word has any longer; null if there are none
+	 */
+	private Map<CharCount, int[][]> signatureChanges;
+
+	/**
+	 * number of phrase-local tries kept by {@link #localize(String)}
+	 */
+	private static final int LOCAL_TRIES = 16;
+	/**
+	 * number of pruned tries kept by {@link #prune(CharCount)}
+	 */
+	private static final int PRUNED_TRIES = 16;
+	/**
+	 * recently made phrase-local tries, keyed by their alphabets
+	 */
+	private final Map<String, Trie> locals = Collections.synchronizedMap(new LinkedHashMap<String, Trie>(16, 0.75f,
+			true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Trie> eldest) {
+			return size() > LOCAL_TRIES;
+		}
+	});
+	/**
+	 * recently made pruned tries, keyed by the counts they were pruned to
+	 */
+	private final Map<CharCount, Trie> pruned = Collections.synchronizedMap(new LinkedHashMap<CharCount, Trie>(16,
+			0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<CharCount, Trie> eldest) {
+			return size() > PRUNED_TRIES;
+		}
+	});
 
 	public Trie(StringNormalizer normalizer ,CharMap cm) {
 		this.normalizer = normalizer;
 		this.cm = cm;
 	}
 
+	/**
+	 * Builds a frozen trie from a word list.
+	 * 
+	 * @param dictionary
+	 *            word list; one word per line
+	 * @param normalizer
+	 * @return the trie
+	 * @throws IOException
+	 */
+	public static Trie load(File dictionary, StringNormalizer normalizer) throws IOException {
+		List<String> words = new LinkedList<>();
+		try (BufferedReader br = new BufferedReader(new FileReader(dictionary))) {
+			for (String line; (line = br.readLine()) != null;) {
+				words.add(line);
+			}
+		}
+		return build(words, normalizer);
+	}
+
+	/**
+	 * Builds a frozen trie from a collection of words.
+	 * 
+	 * @param words
+	 * @param normalizer
+	 * @return the trie
+	 */
+	public static Trie build(Iterable<String> words, StringNormalizer normalizer) {
+		Map<Character, int[]> frequencyMap = new TreeMap<>();
+		List<String> normalized = new LinkedList<>();
+		for (String line : words) {
+			String word = normalizer.normalize(line);
+			normalized.add(word);
+			for (char c : word.toCharArray()) {
+				int[] counts = frequencyMap.get(c);
+				if (counts == null)
+					frequencyMap.put(c, counts = new int[] { 0 });
+				counts[0]++;
+			}
+		}
+		CharMap cm = new CharMap(frequencyMap);
+		Trie trie = new Trie(normalizer, cm);
+		for (String word : normalized)
+			trie.addWord(word);
+		trie.freeze();
+		return trie;
+	}
+
 	public void addWord(String word) {
 		word = normalizer.normalize(word);
 		if (word.length() > 0) {
 			int[] translation = cm.translate(word);
 			root.add(translation, 0);
+			CharCount signature = cm.characterCount(word);
+			List<int[]> words = pendingSignatures.get(signature);
+			if (words == null)
+				pendingSignatures.put(signature, words = new ArrayList<>(1));
+			for (int[] w : words) {
+				if (Arrays.equals(w, translation))
+					return;
+			}
+			words.add(translation);
+		}
+	}
+
+	/**
+	 * Makes a new frozen trie with some words added and others removed, leaving
+	 * this one unchanged. The new trie shares every node not on the path of a
+	 * changed word, and the unchanged part of the signature index. If an added
+	 * word has a character this trie's character map
+	 * does not know, the new trie is rebuilt from scratch.
+	 * 
+	 * @param added
+	 * @param removed
+	 * @return the new trie
+	 */
+	public Trie withChanges(Collection<String> added, Collection<String> removed) {
+		for (String word : added) {
+			for (char c : normalizer.normalize(word).toCharArray()) {
+				if (cm.charToInt(c) == 0) {
+					Set<String> words = new LinkedHashSet<>(words());
+					for (String w : removed)
+						words.remove(normalizer.normalize(w));
+					words.addAll(added);
+					return build(words, normalizer);
+				}
+			}
 		}
+		Trie t = new Trie(normalizer, cm);
+		t.pendingSignatures = null;
+		t.signatures = signatures;
+		t.signatureChanges = signatureChanges == null ? new HashMap<>() : new HashMap<>(signatureChanges);
+		TrieNode r = root;
+		for (String word : removed) {
+			word = normalizer.normalize(word);
+			if (word.length() == 0)
+				continue;
+			int[] translation = cm.translate(word);
+			r = r.without(translation, 0);
+			if (r == null) {
+				r = new TrieNode();
+				r.freeze();
+			}
+			CharCount signature = cm.characterCount(word);
+			List<int[]> words = new ArrayList<>(Arrays.asList(t.wordsWithSignature(signature)));
+			words.removeIf((w) -> Arrays.equals(w, translation));
+			t.signatureChanges.put(signature, words.toArray(new int[words.size()][]));
+		}
+		for (String word : added) {
+			word = normalizer.normalize(word);
+			if (word.length() == 0)
+				continue;
+			int[] translation = cm.translate(word);
+			r = r.with(translation, 0);
+			CharCount signature = cm.characterCount(word);
+			List<int[]> words = new ArrayList<>(Arrays.asList(t.wordsWithSignature(signature)));
+			if (!words.stream().anyMatch((w) -> Arrays.equals(w, translation))) {
+				words.add(translation);
+				t.signatureChanges.put(signature, words.toArray(new int[words.size()][]));
+			}
+		}
+		t.root = r;
+		// fold the changes into a new index once they are a sizable fraction
+		// of it, so each edit costs the changes so far rather than the index
+		if (t.signatureChanges.size() > signatures.size() / 16 + 64) {
+			Map<CharCount, int[][]> merged = new HashMap<>(signatures);
+			for (Map.Entry<CharCount, int[][]> e : t.signatureChanges.entrySet()) {
+				if (e.getValue().length == 0)
+					merged.remove(e.getKey());
+				else
+					merged.put(e.getKey(), e.getValue());
+			}
+			t.signatures = merged;
+			t.signatureChanges = null;
+		}
+		return t;
+	}
+
+	/**
+	 * @return all the words in the trie
+	 */
+	public List<String> words() {
+		List<int[]> translations = new ArrayList<>();
+		root.words(null, new int[16], 0, translations);
+		List<String> words = new ArrayList<>(translations.size());
+		for (int[] translation : translations)
+			words.add(translate(translation));
+		return words;
 	}
 
 	public void freeze() {
 		root.freeze();
+		if (pendingSignatures != null) {
+			signatures = new HashMap<>(pendingSignatures.size() * 2);
+			for (Map.Entry<CharCount, List<int[]>> e : pendingSignatures.entrySet()) {
+				List<int[]> words = e.getValue();
+				signatures.put(e.getKey(), words.toArray(new int[words.size()][]));
+			}
+			pendingSignatures = null;
+		}
+	}
+
+	/**
+	 * @param cc
+	 * @return all the words consisting of exactly the characters counted
+	 */
+	int[][] wordsWithSignature(CharCount cc) {
+		int[][] words = signatureChanges == null ? null : signatureChanges.get(cc);
+		if (words == null)
+			words = signatures.get(cc);
+		return words == null ? NO_WORDS : words;
+	}
+
+	/**
+	 * Streams the dictionary words which can be spelled with some of the given
+	 * letters. Letters the dictionary does not know are ignored; each '?' is a
+	 * blank which may stand for any letter. The trie must be frozen; any
+	 * number of threads may then search it at once.
+	 * 
+	 * @param letters
+	 * @param minLength
+	 *            least length of word wanted
+	 * @param maxLength
+	 *            greatest length of word wanted
+	 * @param sink
+	 *            receives the words in trie order; it may stop the search
+	 */
+	public void subwords(String letters, int minLength, int maxLength, SubwordSink sink) {
+		int blanks = 0;
+		for (int i = 0; i < letters.length(); i++) {
+			if (letters.charAt(i) == BLANK)
+				blanks++;
+		}
+		letters = normalizer.normalize(letters);
+		int[] counts = new int[cm.size()];
+		int total = blanks;
+		for (int i = 0; i < letters.length(); i++) {
+			int c = cm.charToInt(letters.charAt(i));
+			if (c > 0) {
+				counts[c]++;
+				total++;
+			}
+		}
+		subwords(counts, blanks, total, minLength, maxLength, sink);
+	}
+
+	private void subwords(int[] counts, int blanks, int total, int minLength, int maxLength, SubwordSink sink) {
+		int max = Math.min(maxLength, total);
+		if (max < Math.max(minLength, 1))
+			return;
+		root.subwords(counts, blanks, new char[max], 0, Math.max(minLength, 1), cm, sink);
+	}
+
+	/**
+	 * Makes a trie holding only the words which fit in a character count,
+	 * with the same character map as this one, so counts made by either trie
+	 * serve for both. Every count the search of a phrase expands is contained
+	 * in the phrase's count, so the words which do not fit in that can never
+	 * be used. The smaller trie keeps the expansions from descending into
+	 * branches that cannot pay off and is more likely to stay in the processor
+	 * cache. The tries for the last few counts are kept for reuse, so walkers
+	 * made afresh for each search of a phrase share one.
+	 * 
+	 * @param cc
+	 *            a count made with this trie
+	 * @return a trie of the words which fit in the count
+	 */
+	public Trie prune(CharCount cc) {
+		Trie t = pruned.get(cc);
+		if (t == null) {
+			Trie p = new Trie(normalizer, cm);
+			subwords(cc.counts.clone(), cc.blanks, cc.total, 1, cc.total, (w, n) -> {
+				p.addWord(new String(w, 0, n));
+				return true;
+			});
+			p.freeze();
+			pruned.put(cc.dup(), p);
+			t = p;
+		}
+		return t;
+	}
+
+	/**
+	 * @param letters
+	 * @param minLength
+	 * @param maxLength
+	 * @return the dictionary words which can be spelled with some of the
+	 *         letters, longest first, then in alphabetical order
+	 */
+	public List<String> subwords(String letters, int minLength, int maxLength) {
+		List<String> words = new ArrayList<>();
+		subwords(letters, minLength, maxLength, (w, n) -> words.add(new String(w, 0, n)));
+		words.sort((a, b) -> a.length() == b.length() ? a.compareTo(b) : b.length() - a.length());
+		return words;
+	}
+
+	/**
+	 * @param letters
+	 * @param minLength
+	 * @param maxLength
+	 * @return the dictionary words which can be spelled with some of the
+	 *         letters, grouped by length, longest first
+	 */
+	public SortedMap<Integer, List<String>> subwordsByLength(String letters, int minLength, int maxLength) {
+		SortedMap<Integer, List<String>> groups = new TreeMap<>(Collections.reverseOrder());
+		for (String word : subwords(letters, minLength, maxLength))
+			groups.computeIfAbsent(word.length(), (k) -> new ArrayList<>()).add(word);
+		return groups;
+	}
+
+	/**
+	 * Finds the best few words which can be spelled with some of the letters,
+	 * keeping only the current best in memory.
+	 * 
+	 * @param letters
+	 * @param minLength
+	 * @param maxLength
+	 * @param n
+	 *            number of words wanted
+	 * @param weight
+	 *            the value of a word; null means its length
+	 * @return at most n words, best first; words of equal weight are in
+	 *         alphabetical order
+	 */
+	public List<String> topSubwords(String letters, int minLength, int maxLength, int n,
+			ToDoubleFunction<String> weight) {
+		final ToDoubleFunction<String> w = weight == null ? String::length : weight;
+		Comparator<String> worstFirst = (a, b) -> {
+			int c = Double.compare(w.applyAsDouble(a), w.applyAsDouble(b));
+			return c == 0 ? b.compareTo(a) : c;
+		};
+		PriorityQueue<String> best = new PriorityQueue<>(n + 1, worstFirst);
+		if (n > 0) {
+			subwords(letters, minLength, maxLength, (word, length) -> {
+				String s = new String(word, 0, length);
+				if (best.size() < n) {
+					best.add(s);
+				} else if (worstFirst.compare(s, best.peek()) > 0) {
+					best.poll();
+					best.add(s);
+				}
+				return true;
+			});
+		}
+		List<String> words = new ArrayList<>(best);
+		words.sort(worstFirst.reversed());
+		return words;
+	}
+
+	/**
+	 * Makes a trie over the alphabet of a phrase: its character map has only
+	 * the phrase's characters, ordered from rarest to commonest in the phrase,
+	 * and it holds only the words spelled entirely with those characters.
+	 * Character counts made with it are as short as the phrase allows, so every
+	 * copy, comparison, and hash of them costs less, and no expansion descends
+	 * into a branch of the trie the phrase cannot use. The tries for the last
+	 * few alphabets are kept for reuse.
+	 * 
+	 * @param phrase
+	 * @return the phrase-local trie, or this trie if the phrase has blanks or
+	 *         characters this trie does not know, or if its alphabet is no
+	 *         smaller than this trie's
+	 */
+	public Trie localize(String phrase) {
+		if (phrase.indexOf(BLANK) > -1)
+			return this;
+		String letters = normalizer.normalize(phrase);
+		Map<Character, int[]> phraseCounts = new TreeMap<>();
+		for (char c : letters.toCharArray()) {
+			if (cm.charToInt(c) == 0)
+				return this;
+			phraseCounts.computeIfAbsent(c, (k) -> new int[1])[0]++;
+		}
+		if (phraseCounts.isEmpty() || phraseCounts.size() >= cm.size() - 1)
+			return this;
+		// CharMap puts the largest values first, so negate the counts to put
+		// the rarest first, breaking ties by rarity in the dictionary
+		Map<Character, int[]> order = new TreeMap<>();
+		for (Map.Entry<Character, int[]> e : phraseCounts.entrySet())
+			order.put(e.getKey(), new int[] { cm.charToInt(e.getKey()) - e.getValue()[0] * cm.size() });
+		CharMap local = new CharMap(order);
+		StringBuilder alphabet = new StringBuilder();
+		for (int i = 1; i < local.size(); i++)
+			alphabet.append(local.intToChar(i));
+		String key = alphabet.toString();
+		Trie t = locals.get(key);
+		if (t == null) {
+			boolean[] allowed = new boolean[cm.size()];
+			for (char c : phraseCounts.keySet())
+				allowed[cm.charToInt(c)] = true;
+			List<int[]> translations = new ArrayList<>();
+			root.words(allowed, new int[16], 0, translations);
+			t = new Trie(normalizer, local);
+			for (int[] translation : translations)
+				t.addWord(translate(translation));
+			t.freeze();
+			locals.put(key, t);
+		}
+		return t;
+	}
+
+	/**
+	 * @param word
+	 * @return whether the word, once normalized, is in the dictionary
+	 */
+	public boolean contains(String word) {
+		CharCount cc = characterCount(word);
+		if (cc == null || cc.total == 0)
+			return false;
+		int[] translation = cm.translate(normalizer.normalize(word));
+		for (int[] w : wordsWithSignature(cc)) {
+			if (Arrays.equals(w, translation))
+				return true;
+		}
+		return false;
 	}
 
+	/**
+	 * @param cc
+	 * @return the letters counted, in character map order; for diagnostics
+	 */
+	String letters(CharCount cc) {
+		int[] word = new int[cc.total - cc.blanks];
+		for (int i = 0, j = 0; i < cc.counts.length; i++) {
+			for (int n = cc.counts[i]; n > 0 && j < word.length; n--)
+				word[j++] = i;
+		}
+		StringBuilder b = new StringBuilder(translate(word));
+		for (int i = 0; i < cc.blanks; i++)
+			b.append(BLANK);
+		return b.toString();
+	}
+
+	/**
+	 * @param word
+	 * @return the word as a string, with the characters spelled by blanks in
+	 *         brackets: "d[o]g"
+	 */
 	String translate(int[] word) {
+		for (int i : word) {
+			if (i < 0) {
+				StringBuilder b = new StringBuilder(word.length * 3);
+				for (int c : word) {
+					if (c < 0)
+						b.append('[').append(cm.intToChar(-c)).append(']');
+					else
+						b.append(cm.intToChar(c));
+				}
+				return b.toString().intern();
+			}
+		}
 		return cm.translate(word);
 	}
 
+	/**
+	 * Counts the characters of a phrase. Each '?' in the phrase is counted as
+	 * a blank, which may stand for any character.
+	 * 
+	 * @param phrase
+	 * @return the count, or null if the phrase contains characters not in the
+	 *         dictionary
+	 */
 	public CharCount characterCount(String phrase) {
-		return cm.characterCount(normalizer.normalize(phrase));
+		int blanks = 0;
+		if (phrase.indexOf(BLANK) > -1) {
+			for (int i = 0; i < phrase.length(); i++) {
+				if (phrase.charAt(i) == BLANK)
+					blanks++;
+			}
+			phrase = phrase.replace(String.valueOf(BLANK), "");
+		}
+		CharCount cc = cm.characterCount(normalizer.normalize(phrase));
+		if (cc != null) {
+			cc.blanks = blanks;
+			cc.total += blanks;
+		}
+		return cc;
 	}
 
 	/**
@@ -43,7 +545,28 @@ public class Trie {
 	 * @param duds 
 	 */
 	public void allSingleWordsFromCharacterCount(CharCount cc, List<PartialEvaluation> list, Set<CharCount> duds) {
-		root.allSingleWordsFromCharacterCount(new PartialEvaluation(cc), list);
+		allSingleWordsFromCharacterCount(cc, list, duds, null);
+	}
+
+	/**
+	 * Takes a {@link CharCount} and returns a list of {@link PartialEvaluation}
+	 * objects whose remainders are canonical.
+	 * 
+	 * @param cc
+	 * @param list
+	 * @param duds
+	 * @param interner
+	 *            canonicalizes the remainders as the partial evaluations are
+	 *            frozen; may be null
+	 */
+	void allSingleWordsFromCharacterCount(CharCount cc, List<PartialEvaluation> list, Set<CharCount> duds,
+			CharCountInterner interner) {
+		if (cc.total <= DIRECT_LOOKUP_THRESHOLD && cc.blanks == 0) {
+			int[] cs = cc.charSet();
+			subCounts(cc, cs, 0, new int[cc.counts.length], 0, list);
+		} else {
+			root.allSingleWordsFromCharacterCount(new PartialEvaluation(cc), list);
+		}
 		// make sure every character count was decremented somewhere
 		Set<Integer> cs = new HashSet<>(cc.charSet().length);
 		for (int i: cc.charSet())
@@ -58,6 +581,8 @@ public class Trie {
 		if (cs.isEmpty()) {
 			for (PartialEvaluation pe : list) {
 				pe.freeze();
+				if (interner != null)
+					pe.cc = interner.intern(pe.cc);
 			}
 		} else {
 			list.clear();
@@ -65,6 +590,51 @@ public class Trie {
 		}
 	}
 
+	/**
+	 * Enumerates the sub-counts of a character count, looking each up in the
+	 * signature index. Every hit is a word that can be extracted from the count
+	 * and the complement of the sub-count is what remains. Where the remainder
+	 * is itself a word, the last two words of an anagram are found with two
+	 * lookups: this sub-count and, when the remainder is expanded, its
+	 * complement.
+	 * 
+	 * @param cc
+	 *            count being expanded
+	 * @param cs
+	 *            characters counted in cc
+	 * @param i
+	 *            index into cs of the character to vary
+	 * @param sub
+	 *            sub-count under construction
+	 * @param total
+	 *            characters counted in sub
+	 * @param list
+	 *            collects the partial evaluations found
+	 */
+	private void subCounts(CharCount cc, int[] cs, int i, int[] sub, int total, List<PartialEvaluation> list) {
+		if (i == cs.length) {
+			if (total == 0)
+				return;
+			CharCount key = new CharCount(sub.length);
+			for (int c : cs)
+				key.counts[c] = sub[c];
+			key.total = total;
+			int[][] words = wordsWithSignature(key);
+			if (words.length == 0)
+				return;
+			CharCount remainder = cc.minus(key);
+			for (int[] word : words)
+				list.add(new PartialEvaluation(word, remainder));
+			return;
+		}
+		int c = cs[i];
+		for (int n = 0, lim = cc.counts[c]; n <= lim; n++) {
+			sub[c] = n;
+			subCounts(cc, cs, i + 1, sub, total + n, list);
+		}
+		sub[c] = 0;
+	}
+
 	/**
 	 * @return number of nodes in trie
 	 */
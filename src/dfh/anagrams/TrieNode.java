@@ -1,5 +1,6 @@
 package dfh.anagrams;
 
+import java.util.Arrays;
 import java.util.List;
 
 public class TrieNode {
@@ -81,6 +82,49 @@ public class TrieNode {
 		}
 	}
 
+	/**
+	 * Streams the words of the sub-trie which can be spelled with the given
+	 * counts. The counts are decremented on the way down and restored on the
+	 * way back up, so the search allocates nothing.
+	 * 
+	 * @param counts
+	 *            available characters, by index
+	 * @param blanks
+	 *            available blanks, spent on characters the counts lack
+	 * @param word
+	 *            buffer for the word under construction; its length is the
+	 *            greatest word length sought
+	 * @param depth
+	 *            number of characters in the buffer leading to this node
+	 * @param min
+	 *            least word length sought
+	 * @param cm
+	 * @param sink
+	 * @return false if the sink asked to stop
+	 */
+	boolean subwords(int[] counts, int blanks, char[] word, int depth, int min, CharMap cm, SubwordSink sink) {
+		if (terminal && depth >= min && !sink.accept(word, depth))
+			return false;
+		if (depth == word.length)
+			return true;
+		for (int i : jumpList) {
+			boolean more;
+			word[depth] = cm.intToChar(i);
+			if (counts[i] > 0) {
+				counts[i]--;
+				more = children[i].subwords(counts, blanks, word, depth + 1, min, cm, sink);
+				counts[i]++;
+			} else if (blanks > 0) {
+				more = children[i].subwords(counts, blanks - 1, word, depth + 1, min, cm, sink);
+			} else {
+				continue;
+			}
+			if (!more)
+				return false;
+		}
+		return true;
+	}
+
 	/**
 	 * @return the number of terminal nodes dominated by this node
 	 */
@@ -92,6 +136,100 @@ public class TrieNode {
 		return n;
 	}
 
+	/**
+	 * Collects the words in the sub-trie rooted at this node.
+	 * 
+	 * @param allowed
+	 *            the characters words may contain, by index; null if any
+	 *            character is allowed
+	 * @param prefix
+	 *            characters leading to this node
+	 * @param depth
+	 *            number of characters in the prefix
+	 * @param words
+	 *            receives the words as character indices
+	 */
+	void words(boolean[] allowed, int[] prefix, int depth, List<int[]> words) {
+		if (terminal)
+			words.add(Arrays.copyOf(prefix, depth));
+		for (int i : jumpList) {
+			if (allowed != null && !allowed[i])
+				continue;
+			if (depth == prefix.length)
+				prefix = Arrays.copyOf(prefix, depth * 2 + 1);
+			prefix[depth] = i;
+			children[i].words(allowed, prefix, depth + 1, words);
+		}
+	}
+
+	/**
+	 * @return a frozen shallow copy of this node
+	 */
+	private TrieNode copy() {
+		TrieNode n = new TrieNode();
+		n.children = children.length == 0 ? EMPTY_CHILD_LIST : Arrays.copyOf(children, children.length);
+		n.terminal = terminal;
+		n.jumpList = jumpList;
+		return n;
+	}
+
+	/**
+	 * Copy-on-write addition to a frozen trie. Only the nodes along the path
+	 * of the word are copied; the rest of the trie is shared.
+	 * 
+	 * @param translation
+	 * @param i
+	 * @return a frozen node whose sub-trie includes the suffix
+	 */
+	TrieNode with(int[] translation, int i) {
+		TrieNode n = copy();
+		if (i == translation.length) {
+			n.terminal = true;
+		} else {
+			int c = translation[i];
+			if (c >= n.children.length)
+				n.children = Arrays.copyOf(n.children, c + 1);
+			TrieNode child = n.children[c];
+			if (child == null) {
+				child = new TrieNode();
+				child.makeJumpList();
+			}
+			n.children[c] = child.with(translation, i + 1);
+			n.makeJumpList();
+		}
+		return n;
+	}
+
+	/**
+	 * Copy-on-write removal from a frozen trie.
+	 * 
+	 * @param translation
+	 * @param i
+	 * @return this node if the suffix is not in its sub-trie, null if the node
+	 *         is left with neither children nor a word, otherwise a frozen copy
+	 *         lacking the suffix
+	 */
+	TrieNode without(int[] translation, int i) {
+		TrieNode n;
+		if (i == translation.length) {
+			if (!terminal)
+				return this;
+			n = copy();
+			n.terminal = false;
+		} else {
+			int c = translation[i];
+			if (c >= children.length || children[c] == null)
+				return this;
+			TrieNode child = children[c].without(translation, i + 1);
+			if (child == children[c])
+				return this;
+			n = copy();
+			n.children[c] = child;
+			n.makeJumpList();
+		}
+		return n.terminal || n.jumpList.length > 0 ? n : null;
+	}
+
 	public void freeze() {
 		makeJumpList();
 		for (int i: jumpList) {
@@ -1,6 +1,11 @@
 package dfh.anagrams;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashSet;
@@ -10,49 +15,169 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
+import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-
-import dfh.thread.ThreadPuddle;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A {@link TrieWalker} searches the trie with multiple threads. It holds the
- * work queue and dynamic programming cache this process needs. This cache is
- * held for the life of the walker. If you reuse a walker on a new phrase, the
- * cache from the first set of anagrams may accelerate further collection. On
- * the other hand, it may just waste memory, in which case you are better off
- * replacing the walker.
+ * work queue and dynamic programming cache this process needs. The cache is
+ * only good for the trie it was built against. By default every phrase is
+ * searched against the whole dictionary and the cache lasts for the life of
+ * the walker, where it may accelerate later searches or just waste memory. If
+ * each phrase is instead searched against a trie localized to its alphabet or
+ * pruned to the words which fit it, the cache lasts for one phrase in practice:
+ * it is discarded whenever the phrase needs a different trie, and reused only
+ * by a phrase with the same alphabet which fits in the one the pruned trie was
+ * made for.
  * 
  * @author houghton
  *
  */
 public class TrieWalker {
+	/**
+	 * the whole dictionary
+	 */
+	private final Trie dictionary;
+	/**
+	 * the trie searches are run against: the dictionary or a phrase-local
+	 * trie made from it
+	 */
 	private Trie trie;
+	private boolean localize, prune;
+	/**
+	 * when the trie is pruned, the trie it was pruned from and the count it
+	 * was pruned to
+	 */
+	private Trie unpruned;
+	private CharCount prunedTo;
 	private Map<CharCount, List<PartialEvaluation>> partials = new ConcurrentHashMap<>();
 	private Set<CharCount> duds = ConcurrentHashMap.newKeySet();
+	private CharCountInterner interner = new CharCountInterner();
 	private Queue<CharCount> work = new ConcurrentLinkedQueue<>();
-	private ThreadPuddle pool;
+	/**
+	 * the length of the work queue during an on-heap walk, whose size()
+	 * method takes time proportional to its length
+	 */
+	private final AtomicInteger pending = new AtomicInteger();
+	private TaskPool pool;
+	private Executor executor;
 	public Runnable beforeWalk = () -> {
 	}, beforeCollect = () -> {
 	}, afterCollect = () -> {
 	}, beforeClean = () -> {
+	}, afterSearch = () -> {
 	};
 	AfterClean afterClean = (a, b, c) -> {
 	};
 	private AnagramStower stower;
 	private int threads;
+	/**
+	 * whether every character count reachable from a cached count is itself
+	 * cached; an interrupted incremental search leaves holes
+	 */
+	private boolean closed = true;
+	private long timeout = 0;
+	private Search search;
+	private boolean offHeap = false;
+	private PartialsArena arena;
+	private MemoryBudget budget;
+	/**
+	 * set when the walk is abandoned because the cache will not fit in the
+	 * memory budget
+	 */
+	private volatile boolean overBudget = false;
+	/**
+	 * set when a depth-first search declines to cache an expansion
+	 */
+	private volatile boolean uncached = false;
 
 	public TrieWalker(Trie trie, AnagramStower stower) {
 		this(trie, stower, Runtime.getRuntime().availableProcessors() + 1);
 	}
 
 	public TrieWalker(Trie trie, AnagramStower stower, int threads) {
+		this.dictionary = trie;
 		this.trie = trie;
 		this.stower = stower;
 		this.threads = threads;
 	}
 
+	/**
+	 * @param executor
+	 *            shared executor to run searches on, in place of a new thread
+	 *            and thread pool per search; the walker will occupy at most
+	 *            its thread count of the executor's threads at a time
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * @param offHeap
+	 *            whether {@link #anagrams(String, Runnable, boolean, boolean)}
+	 *            should keep the partial evaluation graph in direct memory
+	 *            rather than on the heap; an off-heap graph lasts only as long
+	 *            as the search that builds it
+	 */
+	public void setOffHeap(boolean offHeap) {
+		this.offHeap = offHeap;
+	}
+
+	/**
+	 * @param localize
+	 *            whether to search each phrase against a trie over the
+	 *            phrase's own alphabet; see {@link Trie#localize(String)}. The
+	 *            default is false: making a local trie scans the dictionary,
+	 *            which costs more than the shorter counts save on all but long
+	 *            phrases over a few alphabets. The cache is discarded whenever
+	 *            a phrase with a different alphabet is searched.
+	 */
+	public void setLocalize(boolean localize) {
+		this.localize = localize;
+	}
+
+	/**
+	 * @param prune
+	 *            whether to search each phrase against a trie holding only the
+	 *            words which fit in it; see {@link Trie#prune(CharCount)}. The
+	 *            default is false: pruning scans the dictionary, which costs a
+	 *            few milliseconds a phrase and saves about a tenth of the walk
+	 *            on long ones. The pruned trie, and the cache with it, is kept
+	 *            only for later phrases which fit in the one it was made for;
+	 *            for any other phrase another is taken and the cache is
+	 *            discarded.
+	 */
+	public void setPrune(boolean prune) {
+		this.prune = prune;
+	}
+
+	/**
+	 * @param bytes
+	 *            estimated heap the cache may occupy; if a walk is projected to
+	 *            exceed this, {@link #anagrams(String, Runnable, boolean, boolean)}
+	 *            falls back to a depth-first search which caches only as much
+	 *            as fits; 0 means there is no budget. Sampling, paging, graph
+	 *            output, and sessions need the whole graph and have no such
+	 *            fallback, so they refuse to run under a budget.
+	 */
+	public void setMemoryBudget(long bytes) {
+		budget = bytes > 0 ? new MemoryBudget(bytes) : null;
+	}
+
+	/**
+	 * @param timeout
+	 *            milliseconds a search may run before it is cancelled; 0 means
+	 *            searches have no deadline
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
 	/**
 	 * @return the number of {@link PartialEvaluation} objects held in the
 	 *         dynamic programming cache; this calculation is not synchronized,
@@ -67,10 +192,14 @@ public class TrieWalker {
 	}
 
 	public int numberCharacterCounts() {
+		if (arena != null)
+			return arena.expandedNodes();
 		return partials.size();
 	}
 
 	public int numberPartialEvaluations() {
+		if (arena != null)
+			return arena.edges();
 		int n = 0;
 		for (List<?> l : partials.values()) {
 			n += l.size();
@@ -78,19 +207,692 @@ public class TrieWalker {
 		return n;
 	}
 
-	public void anagrams(String phrase, Runnable stowerAction, boolean shuffle, boolean shuffleWell) {
-		pool = new ThreadPuddle(threads);
-		CharCount baseCount = trie.characterCount(phrase);
-		if (baseCount == null) {
+	/**
+	 * Starts collecting the anagrams of the phrase on a new thread.
+	 * 
+	 * @param phrase
+	 * @param stowerAction
+	 * @param shuffle
+	 * @param shuffleWell
+	 * @return a handle by which the search may be cancelled or awaited
+	 */
+	public Search anagrams(String phrase, Runnable stowerAction, boolean shuffle, boolean shuffleWell) {
+		return start(() -> {
+			CharCount baseCount = baseCount(phrase);
+			if (baseCount == null) {
+				return;
+			}
+			if (offHeap) {
+				search.strategy(Search.Strategy.OFF_HEAP, "off-heap storage requested");
+				anagramsOffHeap(baseCount, stowerAction);
+			} else if (prepare(baseCount)) {
+				search.phase(Search.Phase.COLLECT);
+				collect(baseCount, stowerAction, shuffle, shuffleWell);
+				if (!search.isCancelled())
+					search.phase(Search.Phase.DONE);
+			} else if (overBudget && !search.isCancelled()) {
+				search.phase(Search.Phase.COLLECT);
+				depthFirst(baseCount, stowerAction);
+			} else {
+				stower.done(stowerAction);
+			}
+		});
+	}
+
+	/**
+	 * @param phrase
+	 * @return the pruned list of first words extractable from the phrase, each
+	 *         the root of an independent shard of the search; the list is the
+	 *         same on every call with the same dictionary and phrase
+	 */
+	public List<PartialEvaluation> roots(String phrase) {
+		CharCount baseCount = baseCount(phrase);
+		List<PartialEvaluation> list = new ArrayList<>();
+		if (baseCount != null)
+			expand(baseCount, list);
+		return list;
+	}
+
+	/**
+	 * Collects the anagrams which begin with the given root. The graph below
+	 * the root is walked in parallel, but the anagrams are collected by a
+	 * single task, so they arrive in the same order on every call.
+	 * 
+	 * @param root
+	 *            one of the partial evaluations returned by
+	 *            {@link #roots(String)}
+	 * @param stowerAction
+	 * @return a handle by which the search may be cancelled or awaited
+	 */
+	public Search shard(PartialEvaluation root, Runnable stowerAction) {
+		return start(() -> {
+			if (root.done()) {
+				search.phase(Search.Phase.COLLECT);
+				stower.handle(words(Collections.singletonList(root)));
+				search.phase(Search.Phase.DONE);
+				stower.done(stowerAction);
+			} else if (prepare(interner.intern(root.cc))) {
+				search.phase(Search.Phase.COLLECT);
+				List<WordBucket> buckets = partials.containsKey(root.cc)
+						? Collections.singletonList(new WordBucket(root)) : Collections.emptyList();
+				collect(buckets, stowerAction, false);
+				if (!search.isCancelled())
+					search.phase(Search.Phase.DONE);
+			} else {
+				stower.done(stowerAction);
+			}
+		});
+	}
+
+	/**
+	 * Walks, cleans, and collects using an off-heap graph.
+	 * 
+	 * @param baseCount
+	 * @param stowerAction
+	 */
+	private void anagramsOffHeap(CharCount baseCount, Runnable stowerAction) {
+		arena = new PartialsArena(trie);
+		try {
+			int base = arena.id(baseCount);
+			walkOffHeap(baseCount);
+			arena.seal();
+			if (!search.isCancelled()) {
+				search.phase(Search.Phase.CLEAN);
+				beforeClean.run();
+				arena.clean(afterClean, search::isCancelled);
+			}
+			search.record(numberCharacterCounts(), numberPartialEvaluations());
+			if (!search.isCancelled()) {
+				search.phase(Search.Phase.COLLECT);
+				beforeCollect.run();
+				collectOffHeap(base);
+				afterCollect.run();
+				if (!search.isCancelled())
+					search.phase(Search.Phase.DONE);
+			}
+			stower.done(stowerAction);
+		} finally {
+			arena = null;
+			interner.retainAll(partials.keySet());
+		}
+	}
+
+	private void walkOffHeap(CharCount baseCount) {
+		beforeWalk.run();
+		work.add(baseCount);
+		while (true) {
+			while (!(work.isEmpty() || search.isCancelled())) {
+				final CharCount cc = work.remove();
+				final int id = arena.id(cc);
+				if (!arena.claim(id))
+					continue;
+				pool.run(() -> {
+					if (search.isCancelled())
+						return;
+					List<PartialEvaluation> list = new ArrayList<>();
+					expand(cc, list);
+					arena.store(id, list);
+					for (PartialEvaluation pe : list) {
+						if (!pe.done() && arena.unexpanded(arena.id(pe.cc))) {
+							work.add(pe.cc);
+						}
+					}
+				});
+			}
+			pool.flush();
+			if (work.isEmpty() || search.isCancelled()) {
+				work.clear();
+				duds.clear();
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Depth-first traversal of the off-heap graph, one task per edge leaving the
+	 * base node.
+	 * 
+	 * @param base
+	 *            id of the base node
+	 */
+	private void collectOffHeap(int base) {
+		long root = arena.offset(base);
+		if (root < 0)
 			return;
+		final PartialsArena arena = this.arena;
+		for (int e = 0, lim = arena.edgeCount(root); e < lim; e++) {
+			final int edge = e;
+			pool.run(() -> {
+				if (stopped())
+					return;
+				int[] words = new int[16], next = new int[16];
+				long[] nodes = new long[16];
+				words[0] = arena.word(root, edge);
+				int child = arena.child(root, edge);
+				if (child < 0) {
+					emit(arena, words, 1);
+					return;
+				}
+				int sp = 0;
+				nodes[0] = arena.offset(child);
+				next[0] = 0;
+				while (sp >= 0 && !stopped()) {
+					long offset = nodes[sp];
+					int i = next[sp]++;
+					if (i == arena.edgeCount(offset)) {
+						sp--;
+						continue;
+					}
+					if (sp + 2 > words.length) {
+						words = Arrays.copyOf(words, words.length * 2);
+						next = Arrays.copyOf(next, next.length * 2);
+						nodes = Arrays.copyOf(nodes, nodes.length * 2);
+					}
+					words[sp + 1] = arena.word(offset, i);
+					child = arena.child(offset, i);
+					if (child < 0) {
+						emit(arena, words, sp + 2);
+					} else {
+						sp++;
+						nodes[sp] = arena.offset(child);
+						next[sp] = 0;
+					}
+				}
+			});
+		}
+		pool.flush();
+	}
+
+	private void emit(PartialsArena arena, int[] ids, int n) {
+		List<String> words = new ArrayList<>(n);
+		for (int i = 0; i < n; i++)
+			words.add(arena.word(ids[i]));
+		words.sort(null);
+		synchronized (stower) {
+			stower.handle(words);
+		}
+	}
+
+	/**
+	 * Generates anagrams depth-first, expanding each character count only when
+	 * the search first reaches it. Anagrams are handed to the stower as soon as
+	 * they are complete, so the first results arrive without waiting for the
+	 * whole partial evaluation graph to be built. Expansions and duds are
+	 * cached as they are discovered, so each character count is still expanded
+	 * only once. The stower's test is consulted throughout, so a limit stops
+	 * the search itself, not just the collection of results. An incremental
+	 * search is in the {@link Search.Phase#COLLECT} phase throughout.
+	 * 
+	 * @param phrase
+	 * @param stowerAction
+	 * @return a handle by which the search may be cancelled or awaited
+	 */
+	public Search incrementalAnagrams(String phrase, Runnable stowerAction) {
+		return start(() -> {
+			search.phase(Search.Phase.COLLECT);
+			CharCount baseCount = baseCount(phrase);
+			if (baseCount == null) {
+				return;
+			}
+			beforeWalk.run();
+			depthFirst(baseCount, stowerAction);
+		});
+	}
+
+	/**
+	 * The body of an incremental search.
+	 * 
+	 * @param baseCount
+	 * @param stowerAction
+	 */
+	private void depthFirst(CharCount baseCount, Runnable stowerAction) {
+		uncached = false;
+		List<PartialEvaluation> startList = expansion(baseCount);
+		if (startList != null) {
+			for (PartialEvaluation pe : startList) {
+				pool.run(() -> {
+					if (!stopped())
+						descend(new WordBucket(pe));
+				});
+			}
+			pool.flush();
+		}
+		search.record(numberCharacterCounts(), numberPartialEvaluations());
+		if (uncached && search.strategy() == Search.Strategy.FULL_CACHE) {
+			search.strategy(Search.Strategy.BOUNDED_CACHE,
+					String.format("the cache reached the budget of %,d bytes", budget.limit()));
+		}
+		if (search.isCancelled()) {
+			release();
+		} else {
+			if (uncached || stower.test.test())
+				closed = false;
+			search.phase(Search.Phase.DONE);
+		}
+		afterCollect.run();
+		stower.done(stowerAction);
+	}
+
+	/**
+	 * Draws anagrams uniformly at random from the cleaned partial evaluation
+	 * graph. Once the graph is built, the number of anagrams below each
+	 * character count is calculated, counting each anagram by its one
+	 * canonical path, and each anagram is then a single weighted descent from
+	 * the base count, so the cost of sampling is proportional to the number of
+	 * samples times the number of words in an anagram. Samples are uniform over
+	 * anagrams, and distinct samples are distinct anagrams; see
+	 * {@link PathCounts}.
+	 * 
+	 * @param phrase
+	 * @param n
+	 *            number of anagrams to draw
+	 * @param random
+	 *            source of randomness; seed it for repeatable samples
+	 * @param distinct
+	 *            whether to sample without replacement
+	 * @param stowerAction
+	 * @return a handle by which the search may be cancelled or awaited
+	 * @throws IllegalStateException
+	 *             if a memory budget is set; see {@link #setMemoryBudget(long)}
+	 */
+	public Search sample(String phrase, int n, Random random, boolean distinct, Runnable stowerAction) {
+		unbudgeted();
+		return start(() -> {
+			CharCount baseCount = baseCount(phrase);
+			if (baseCount == null) {
+				return;
+			}
+			if (prepare(baseCount)) {
+				search.phase(Search.Phase.COLLECT);
+				beforeCollect.run();
+				PathCounts counts = new PathCounts(partials, (pe) -> pe.translate(trie));
+				BigInteger total = counts.count(baseCount);
+				if (total.signum() > 0) {
+					List<BigInteger> ranks = distinct ? PathCounts.distinct(total, n, random) : null;
+					for (int i = 0; i < n && !stopped(); i++) {
+						if (distinct && i == ranks.size())
+							break;
+						BigInteger rank = distinct ? ranks.get(i) : PathCounts.uniform(total, random);
+						stower.handle(words(counts.path(baseCount, rank)));
+					}
+				}
+				afterCollect.run();
+				if (!search.isCancelled())
+					search.phase(Search.Phase.DONE);
+			}
+			stower.done(stowerAction);
+		});
+	}
+
+	/**
+	 * Emits one page of anagrams in a deterministic order. The order is that of
+	 * the edge indices along each anagram's canonical path through the cleaned
+	 * partial evaluation graph, which does not depend on thread scheduling, so
+	 * a page can be resumed with the cursor left by the previous page. Each
+	 * anagram appears on exactly one page; see {@link PathCounts}.
+	 * 
+	 * @param phrase
+	 * @param cursor
+	 *            cursor returned by the previous page; null for the first page
+	 * @param size
+	 *            maximum number of anagrams in the page
+	 * @param stowerAction
+	 * @return a handle whose {@link Search#cursor()} marks the next page
+	 * @throws IllegalArgumentException
+	 *             if the cursor is malformed; a cursor which does not describe
+	 *             a canonical path in the graph is reported when the search is
+	 *             awaited
+	 * @throws IllegalStateException
+	 *             if a memory budget is set; see {@link #setMemoryBudget(long)}
+	 */
+	public Search page(String phrase, String cursor, int size, Runnable stowerAction) {
+		final int[] indices = cursor == null ? new int[0] : Cursor.decode(cursor);
+		return page(phrase, (counts, baseCount) -> {
+			if (indices.length == 0)
+				return BigInteger.ZERO;
+			BigInteger rank = counts.rank(baseCount, indices);
+			if (rank == null)
+				throw new IllegalArgumentException("cursor " + cursor + " does not belong to this phrase");
+			return rank;
+		}, size, stowerAction);
+	}
+
+	/**
+	 * Emits one page of anagrams in a deterministic order, beginning at the
+	 * given offset. The offset is found by descending the graph once, using
+	 * the number of anagrams below each edge, rather than by enumerating every
+	 * anagram before it.
+	 * 
+	 * @param phrase
+	 * @param offset
+	 *            number of anagrams preceding the page
+	 * @param size
+	 *            maximum number of anagrams in the page
+	 * @param stowerAction
+	 * @return a handle whose {@link Search#cursor()} marks the next page
+	 * @throws IllegalArgumentException
+	 *             if the offset is negative
+	 * @throws IllegalStateException
+	 *             if a memory budget is set; see {@link #setMemoryBudget(long)}
+	 */
+	public Search page(String phrase, long offset, int size, Runnable stowerAction) {
+		if (offset < 0)
+			throw new IllegalArgumentException("negative offset: " + offset);
+		return page(phrase, (counts, baseCount) -> BigInteger.valueOf(offset), size, stowerAction);
+	}
+
+	private interface Start {
+		BigInteger rank(PathCounts counts, CharCount baseCount);
+	}
+
+	private Search page(String phrase, Start start, int size, Runnable stowerAction) {
+		unbudgeted();
+		return start(() -> {
+			CharCount baseCount = baseCount(phrase);
+			if (baseCount == null) {
+				return;
+			}
+			if (prepare(baseCount)) {
+				search.phase(Search.Phase.COLLECT);
+				beforeCollect.run();
+				PathCounts counts = new PathCounts(partials, (pe) -> pe.translate(trie));
+				BigInteger total = counts.count(baseCount), rank = start.rank(counts, baseCount);
+				for (int i = 0; i < size && rank.compareTo(total) < 0 && !stopped(); i++) {
+					stower.handle(words(counts.path(baseCount, rank)));
+					rank = rank.add(BigInteger.ONE);
+				}
+				if (rank.compareTo(total) < 0)
+					search.cursor(Cursor.encode(counts.indices(baseCount, rank)));
+				afterCollect.run();
+				if (!search.isCancelled())
+					search.phase(Search.Phase.DONE);
+			}
+			stower.done(stowerAction);
+		});
+	}
+
+	/**
+	 * Writes the cleaned partial evaluation graph of a phrase rather than its
+	 * anagrams. See {@link AnagramGraph} for the formats and for reading the
+	 * graph back. If the phrase cannot be spelled with the dictionary's
+	 * characters the graph generates no anagrams.
+	 *
+	 * @param phrase
+	 * @param out
+	 *            receives the graph; it is flushed but not closed
+	 * @param format
+	 * @return a handle by which the search may be cancelled or awaited; nothing
+	 *         is written if the search is cancelled or runs over budget
+	 * @throws IllegalStateException
+	 *             if a memory budget is set; see {@link #setMemoryBudget(long)}
+	 */
+	public Search graph(String phrase, OutputStream out, AnagramGraph.Format format) {
+		unbudgeted();
+		return start(() -> {
+			CharCount baseCount = baseCount(phrase);
+			if (baseCount == null || prepare(baseCount)) {
+				search.phase(Search.Phase.COLLECT);
+				beforeCollect.run();
+				try {
+					AnagramGraph.of(partials, baseCount, trie).write(out, format);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				afterCollect.run();
+				if (!search.isCancelled())
+					search.phase(Search.Phase.DONE);
+			}
+		});
+	}
+
+	/**
+	 * Refuses to run a search mode which has no bounded-cache fallback under a
+	 * memory budget, rather than let it report an empty result.
+	 */
+	private void unbudgeted() {
+		if (budget != null)
+			throw new IllegalStateException("sampling, paging, graph output, and sessions need the whole graph "
+					+ "and cannot run under a memory budget");
+	}
+
+	/**
+	 * @return the handle of the current or most recent search
+	 */
+	Search search() {
+		return search;
+	}
+
+	/**
+	 * Runs a search body on a new thread with a fresh thread pool.
+	 * 
+	 * @param body
+	 * @return a handle by which the search may be cancelled or awaited
+	 */
+	private Search start(Runnable body) {
+		final Search search = new Search(timeout);
+		search.start(() -> {
+			this.search = search;
+			pool = executor == null ? new PuddleTaskPool(threads) : new ExecutorTaskPool(executor, threads);
+			try {
+				body.run();
+			} finally {
+				search.anagrams(stower.size());
+				pool.die();
+				afterSearch.run();
+			}
+		}, executor);
+		return search;
+	}
+
+	/**
+	 * Walks and cleans the partial evaluation graph below the base count.
+	 * 
+	 * @param baseCount
+	 * @return whether the graph is complete; if the search was cancelled the
+	 *         cache is released
+	 */
+	private boolean prepare(CharCount baseCount) {
+		if (!closed) {
+			release();
 		}
 		if (!partials.containsKey(baseCount)) {
 			work.add(baseCount);
 		}
+		pending.set(work.size());
+		overBudget = false;
 		walk(baseCount.total);
-		clean();
-		collect(baseCount, stowerAction, shuffle, shuffleWell);
-		pool.die();
+		if (!(search.isCancelled() || overBudget)) {
+			search.phase(Search.Phase.CLEAN);
+			clean();
+		}
+		search.record(numberCharacterCounts(), numberPartialEvaluations());
+		if (overBudget) {
+			search.strategy(Search.Strategy.BOUNDED_CACHE,
+					String.format("after %,d expansions the cache was projected to reach %,d bytes; the budget is %,d",
+							budget.expansions(), budget.projected(pending.get()), budget.limit()));
+		}
+		if (search.isCancelled() || overBudget) {
+			release();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Starts a drill-down session on a phrase. The walker is given over to the
+	 * session, which will extend its cache as the phrase is explored, so it
+	 * should not be used for other searches.
+	 * 
+	 * @param phrase
+	 * @return the session, or null if the walk was cancelled or timed out
+	 * @throws IllegalStateException
+	 *             if a memory budget is set; see {@link #setMemoryBudget(long)}
+	 */
+	public AnagramSession session(String phrase) {
+		unbudgeted();
+		CharCount baseCount = baseCount(phrase);
+		if (baseCount == null)
+			return new AnagramSession(this, null);
+		return cache(baseCount) ? new AnagramSession(this, baseCount) : null;
+	}
+
+	/**
+	 * Makes sure the cleaned graph below a character count is cached, walking
+	 * only the part of it not already in the cache.
+	 * 
+	 * @param cc
+	 * @return whether the graph is complete
+	 */
+	boolean cache(CharCount cc) {
+		if (closed && partials.containsKey(cc))
+			return true;
+		final boolean[] complete = { false };
+		start(() -> {
+			complete[0] = prepare(cc);
+			if (complete[0])
+				search.phase(Search.Phase.DONE);
+		}).await();
+		return complete[0];
+	}
+
+	/**
+	 * @return the cached partial evaluation graph
+	 */
+	Map<CharCount, List<PartialEvaluation>> partials() {
+		return partials;
+	}
+
+	Trie trie() {
+		return trie;
+	}
+
+	/**
+	 * @param path
+	 * @return the sorted words along a path
+	 */
+	List<String> words(List<PartialEvaluation> path) {
+		List<String> words = new ArrayList<>(path.size());
+		for (PartialEvaluation pe : path)
+			words.add(pe.translate(trie));
+		words.sort(null);
+		return words;
+	}
+
+	/**
+	 * Chooses the trie for a phrase, discarding the cache if the trie changes.
+	 * 
+	 * @param phrase
+	 * @return the canonical character count of the phrase, or null if it
+	 *         contains characters not in the dictionary
+	 */
+	private CharCount baseCount(String phrase) {
+		Trie t = localize ? dictionary.localize(phrase) : dictionary;
+		CharCount cc = t.characterCount(phrase);
+		if (cc == null)
+			return null;
+		if (prune) {
+			if (!(t == unpruned && prunedTo.contains(cc))) {
+				// the pruned trie may lack words this phrase needs
+				unpruned = t;
+				prunedTo = cc;
+				release();
+				trie = t.prune(cc);
+			}
+		} else if (t != trie) {
+			// the cached counts are over another alphabet
+			unpruned = null;
+			release();
+			trie = t;
+		}
+		return interner.intern(cc);
+	}
+
+	/**
+	 * @return whether the stower has all it wants or the search has been
+	 *         cancelled
+	 */
+	private boolean stopped() {
+		return stower.test.test() || search.isCancelled();
+	}
+
+	/**
+	 * Discards the cache, which may be incomplete after an interrupted search.
+	 */
+	private void release() {
+		work.clear();
+		pending.set(0);
+		partials.clear();
+		duds.clear();
+		interner.clear();
+		if (budget != null)
+			budget.reset();
+		closed = true;
+	}
+
+	/**
+	 * Depth-first search below a word bucket.
+	 * 
+	 * @param wb
+	 * @return whether any anagram completes below this bucket, or the search
+	 *         was stopped before this could be determined
+	 */
+	private boolean descend(WordBucket wb) {
+		if (wb.pe.done()) {
+			synchronized (stower) {
+				stower.handle(wb.dump());
+			}
+			return true;
+		}
+		CharCount cc = wb.pe.cc;
+		List<PartialEvaluation> list = expansion(cc);
+		if (list == null)
+			return false;
+		boolean found = false;
+		for (PartialEvaluation pe : list) {
+			if (stopped())
+				return true;
+			if (!pe.done() && duds.contains(pe.cc))
+				continue;
+			if (descend(wb.fill(pe)))
+				found = true;
+		}
+		if (!found) {
+			duds.add(cc);
+			dud(cc, "no anagram completes below the count");
+		}
+		return found;
+	}
+
+	/**
+	 * Fetches the cached expansion of a character count, expanding and caching
+	 * it if necessary.
+	 * 
+	 * @param cc
+	 * @return the partial evaluations extractable from the count, or null if it
+	 *         is a dud
+	 */
+	private List<PartialEvaluation> expansion(CharCount cc) {
+		if (duds.contains(cc))
+			return null;
+		List<PartialEvaluation> list = partials.get(cc);
+		if (list == null) {
+			list = new ArrayList<>();
+			expand(cc, list);
+			if (list.isEmpty()) {
+				duds.add(cc);
+				return null;
+			}
+			if (budget == null || budget.hasRoom()) {
+				List<PartialEvaluation> prior = partials.putIfAbsent(cc, list);
+				if (prior != null)
+					list = prior;
+				else if (budget != null)
+					budget.charge(cc, list);
+			} else {
+				uncached = true;
+			}
+		}
+		return list;
 	}
 
 	/**
@@ -103,12 +905,18 @@ public class TrieWalker {
 		for (List<PartialEvaluation> l : partials.values())
 			branchCount += l.size();
 		Set<CharCount> buffer = new HashSet<>(), pivot;
-		while (!duds.isEmpty()) {
+		int round = 0;
+		while (!(duds.isEmpty() || search.isCancelled())) {
+			CleanRoundEvent event = new CleanRoundEvent();
+			event.begin();
+			int removed = 0;
 			for (Entry<CharCount, List<PartialEvaluation>> e : partials.entrySet()) {
 				List<PartialEvaluation> list = e.getValue();
 				for (Iterator<PartialEvaluation> j = list.iterator(); j.hasNext();) {
-					if (duds.contains(j.next().cc))
+					if (duds.contains(j.next().cc)) {
 						j.remove();
+						removed++;
+					}
 				}
 				if (list.isEmpty()) {
 					buffer.add(e.getKey());
@@ -117,6 +925,13 @@ public class TrieWalker {
 			for (CharCount cc : buffer) {
 				partials.remove(cc);
 			}
+			if (event.shouldCommit()) {
+				event.round = ++round;
+				event.duds = duds.size();
+				event.branchesRemoved = removed;
+				event.countsRemoved = buffer.size();
+				event.commit();
+			}
 			pivot = buffer;
 			buffer = duds;
 			duds = pivot;
@@ -124,6 +939,7 @@ public class TrieWalker {
 		}
 		for (List<PartialEvaluation> l : partials.values())
 			finalBranchCount += l.size();
+		interner.retainAll(partials.keySet());
 		afterClean.run(branchCount, finalBranchCount, partialCount - partials.size());
 	}
 
@@ -166,31 +982,59 @@ public class TrieWalker {
 	}
 
 	private void collect(CharCount baseCount, Runnable stowerAction, boolean shuffle, boolean shuffleWell) {
-		beforeCollect.run();
-		List<PartialEvaluation> startList = partials.get(baseCount);
-		if (shuffle)
+		List<PartialEvaluation> startList = partials.getOrDefault(baseCount, Collections.emptyList());
+		if (shuffle) {
+			startList = new ArrayList<>(startList);
 			Collections.shuffle(startList);
-		for (PartialEvaluation pe : startList) {
+		}
+		List<WordBucket> buckets = new ArrayList<>(startList.size());
+		for (PartialEvaluation pe : startList)
+			buckets.add(new WordBucket(pe));
+		collect(buckets, stowerAction, shuffleWell);
+	}
+
+	/**
+	 * Collects the anagrams below the given buckets, one task per bucket.
+	 * 
+	 * @param buckets
+	 * @param stowerAction
+	 * @param shuffleWell
+	 */
+	private void collect(List<WordBucket> buckets, Runnable stowerAction, boolean shuffleWell) {
+		beforeCollect.run();
+		for (WordBucket start : buckets) {
 			pool.run(() -> {
-				if (stower.test.test())
+				if (stopped())
 					return;
+				CollectEvent event = new CollectEvent();
+				event.begin();
+				int found = 0;
 				Deque<WordBucket> queue = new LinkedList<>();
-				queue.add(new WordBucket(pe));
-				while (!(queue.isEmpty() || stower.test.test())) {
+				queue.add(start);
+				while (!(queue.isEmpty() || stopped())) {
 					WordBucket wb = queue.pop();
 					if (wb.pe.done()) {
+						found++;
 						synchronized (stower) {
 							stower.handle(wb.dump());
 						}
 					} else {
 						List<PartialEvaluation> nextList = partials.get(wb.pe.cc);
-						if (shuffleWell)
-							Collections.shuffle(nextList);
+						if (shuffleWell) {
+							nextList = new ArrayList<>(nextList);
+							Collections.shuffle(nextList, ThreadLocalRandom.current());
+						}
 						for (PartialEvaluation pe2 : nextList) {
 							queue.push(wb.fill(pe2));
 						}
 					}
 				}
+				if (event.shouldCommit()) {
+					event.word = start.pe.translate(trie);
+					event.remainder = trie.letters(start.pe.cc);
+					event.anagrams = found;
+					event.commit();
+				}
 			});
 		}
 		pool.flush();
@@ -201,70 +1045,121 @@ public class TrieWalker {
 	private void walk(final int longestWord) {
 		beforeWalk.run();
 		while (true) {
-			while (!work.isEmpty()) {
+			while (!(work.isEmpty() || search.isCancelled() || overBudget)) {
 				Runnable r;
+				if (budget != null && budget.exceeded(pending.get())) {
+					overBudget = true;
+					break;
+				}
 				final CharCount cc = work.remove();
+				pending.decrementAndGet();
 				if (duds.contains(cc))
 					continue;
 				final List<PartialEvaluation> list = new LinkedList<>();
 				partials.put(cc, list);
 				r = () -> {
-					trie.allSingleWordsFromCharacterCount(cc, list, duds);
-
-					// prune the tree
-					// keep only those partials that decremented the least
-					// frequently decremented
-					// character count -- these must be decremented in any
-					// successful anagram anyway,
-					// and this reduces the size of the search tree and thus
-					// the number of duplicates
-					// that would otherwise have to be jettisoned
-					int[] charCount = new int[cc.counts.length];
-					for (PartialEvaluation pe : list) {
-						for (int i : pe.charSet()) {
-							charCount[i]++;
-						}
-					}
-					int bestCount = 0;
-					LinkedList<Integer> optima = new LinkedList<>();
-					for (int i = 0; i < charCount.length; i++) {
-						int bc = charCount[i];
-						if (bc == 0)
-							continue;
-						if (bestCount == 0) {
-							optima.add(i);
-							bestCount = bc;
-						} else if (bestCount == bc) {
-							optima.add(i);
-						} else if (bestCount > bc) {
-							optima.clear();
-							optima.add(i);
-							bestCount = bc;
-						}
-					}
-					if (optima.isEmpty())
+					if (search.isCancelled() || overBudget)
 						return;
-					Collections.sort(optima);
-					int best = optima.getFirst();
-					for (Iterator<PartialEvaluation> i = list.iterator(); i.hasNext();) {
-						PartialEvaluation pe = i.next();
-						if (!pe.charSet().contains(best)) {
-							i.remove();
-						}
-					}
-
+					expand(cc, list);
+					if (budget != null)
+						budget.charge(cc, list);
 					for (PartialEvaluation pe : list) {
 						if (!(pe.done() || partials.containsKey(pe.cc))) {
 							work.add(pe.cc);
+							pending.incrementAndGet();
 						}
 					}
 				};
 				pool.run(r);
 			}
 			pool.flush();
-			if (work.isEmpty()) {
+			if (work.isEmpty() || search.isCancelled() || overBudget) {
 				break;
 			}
 		}
 	}
+
+	/**
+	 * Fills the list with the pruned set of partial evaluations which may be
+	 * extracted from the given character count. If the count is a dud, the
+	 * list is left empty and the count is added to the duds.
+	 * 
+	 * @param cc
+	 * @param list
+	 */
+	private void expand(CharCount cc, List<PartialEvaluation> list) {
+		ExpansionEvent event = new ExpansionEvent();
+		event.begin();
+		// an arena's node table already canonicalizes the counts
+		trie.allSingleWordsFromCharacterCount(cc, list, duds, arena == null ? interner : null);
+		int candidates = list.size();
+		if (list.isEmpty())
+			dud(cc, "no words cover the count");
+
+		// prune the tree
+		// keep only those partials that decremented the least
+		// frequently decremented
+		// character count -- these must be decremented in any
+		// successful anagram anyway,
+		// and this reduces the size of the search tree and thus
+		// the number of duplicates
+		// that would otherwise have to be jettisoned
+		int[] charCount = new int[cc.counts.length];
+		for (PartialEvaluation pe : list) {
+			for (int i : pe.charSet()) {
+				charCount[i]++;
+			}
+		}
+		int bestCount = 0;
+		LinkedList<Integer> optima = new LinkedList<>();
+		for (int i = 0; i < charCount.length; i++) {
+			int bc = charCount[i];
+			if (bc == 0)
+				continue;
+			if (bestCount == 0) {
+				optima.add(i);
+				bestCount = bc;
+			} else if (bestCount == bc) {
+				optima.add(i);
+			} else if (bestCount > bc) {
+				optima.clear();
+				optima.add(i);
+				bestCount = bc;
+			}
+		}
+		if (!optima.isEmpty()) {
+			Collections.sort(optima);
+			int best = optima.getFirst();
+			for (Iterator<PartialEvaluation> i = list.iterator(); i.hasNext();) {
+				PartialEvaluation pe = i.next();
+				if (!pe.charSet().contains(best)) {
+					i.remove();
+				}
+			}
+		}
+		if (event.shouldCommit()) {
+			event.key = trie.letters(cc);
+			event.letters = cc.total;
+			event.candidates = candidates;
+			event.kept = list.size();
+			event.commit();
+		}
+	}
+
+	/**
+	 * Records the discovery of a dud with the flight recorder, if it is
+	 * listening.
+	 * 
+	 * @param cc
+	 * @param reason
+	 */
+	private void dud(CharCount cc, String reason) {
+		DudEvent event = new DudEvent();
+		if (event.shouldCommit()) {
+			event.key = trie.letters(cc);
+			event.letters = cc.total;
+			event.reason = reason;
+			event.commit();
+		}
+	}
 }
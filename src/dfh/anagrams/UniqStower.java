@@ -11,6 +11,10 @@ public class UniqStower extends AnagramStower {
 		super(out);
 	}
 
+	public UniqStower(AnagramWriter out) {
+		super(out);
+	}
+
 	Set<String> known = new TreeSet<>();
 
 	@Override
@@ -32,7 +36,7 @@ public class UniqStower extends AnagramStower {
 			String s = b.toString();
 			if (!known.contains(s)) {
 				known.add(s);
-				out.println(s);
+				out.write(anagram);
 			}
 		}
 	}
@@ -0,0 +1,97 @@
+package dfh.anagrams;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Count array operations a vector register at a time, with a scalar tail. This
+ * class may only be loaded if the {@code jdk.incubator.vector} module is
+ * present; {@link CountOps#INSTANCE} falls back to {@link ScalarCountOps} if it
+ * is not.
+ * 
+ * @author houghton
+ *
+ */
+class VectorCountOps extends CountOps {
+	/**
+	 * at most 256 bits: count arrays are rarely much longer than 27, and with
+	 * wider registers most of the work falls to the scalar tail
+	 */
+	private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED.vectorBitSize() > 256
+			? IntVector.SPECIES_256 : IntVector.SPECIES_PREFERRED;
+	private static final int LANES = SPECIES.length();
+	/**
+	 * 31 raised to the power of the number of lanes
+	 */
+	private static final int STRIDE_POWER;
+	/**
+	 * descending powers of 31, so one multiply and reduction folds a whole
+	 * vector into the hash as {@link java.util.Arrays#hashCode(int[])} would
+	 */
+	private static final IntVector POWERS;
+	static {
+		int[] powers = new int[LANES];
+		int p = 1;
+		for (int i = LANES - 1; i >= 0; i--) {
+			powers[i] = p;
+			p *= 31;
+		}
+		STRIDE_POWER = p;
+		POWERS = IntVector.fromArray(SPECIES, powers, 0);
+	}
+
+	@Override
+	boolean equal(int[] a, int[] b) {
+		int i = 0;
+		for (int bound = SPECIES.loopBound(a.length); i < bound; i += LANES) {
+			IntVector va = IntVector.fromArray(SPECIES, a, i), vb = IntVector.fromArray(SPECIES, b, i);
+			if (va.compare(VectorOperators.NE, vb).anyTrue())
+				return false;
+		}
+		for (; i < a.length; i++) {
+			if (a[i] != b[i])
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	int hash(int[] a) {
+		int h = 1, i = 0;
+		for (int bound = SPECIES.loopBound(a.length); i < bound; i += LANES)
+			h = h * STRIDE_POWER + IntVector.fromArray(SPECIES, a, i).mul(POWERS).reduceLanes(VectorOperators.ADD);
+		for (; i < a.length; i++)
+			h = 31 * h + a[i];
+		return h;
+	}
+
+	@Override
+	boolean contains(int[] a, int[] b) {
+		int i = 0;
+		for (int bound = SPECIES.loopBound(a.length); i < bound; i += LANES) {
+			IntVector va = IntVector.fromArray(SPECIES, a, i), vb = IntVector.fromArray(SPECIES, b, i);
+			if (vb.compare(VectorOperators.GT, va).anyTrue())
+				return false;
+		}
+		for (; i < a.length; i++) {
+			if (b[i] > a[i])
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	void subtract(int[] a, int[] b, int[] out) {
+		int i = 0;
+		for (int bound = SPECIES.loopBound(a.length); i < bound; i += LANES)
+			IntVector.fromArray(SPECIES, a, i).sub(IntVector.fromArray(SPECIES, b, i)).intoArray(out, i);
+		for (; i < a.length; i++)
+			out[i] = a[i] - b[i];
+	}
+
+	@Override
+	String name() {
+		return "vector (" + LANES + " lanes)";
+	}
+}
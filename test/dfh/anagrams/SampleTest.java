@@ -0,0 +1,119 @@
+package dfh.anagrams;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Checks that sampling is uniform over anagrams rather than over paths through
+ * the partial evaluation graph, and that distinct samples are distinct
+ * anagrams. Run it with assertions enabled:
+ *
+ * <pre>
+ * java -ea -cp ... dfh.anagrams.SampleTest
+ * </pre>
+ *
+ * @author houghton
+ *
+ */
+public class SampleTest {
+	private static final List<String> WORDS = Arrays.asList("star", "rats", "arts", "tsar", "tar", "rat", "art",
+			"a", "as", "at", "st", "sat", "tsars", "start", "strata");
+	private static final String PHRASE = "tsars at art";
+	private static final int DRAWS = 20000;
+
+	/**
+	 * collects anagrams as space-separated strings
+	 */
+	private static class Collector extends AnagramWriter {
+		final List<String> anagrams = Collections.synchronizedList(new ArrayList<>());
+
+		Collector() {
+			super(AnagramFormat.TEXT);
+		}
+
+		@Override
+		public void write(List<String> anagram) {
+			anagrams.add(String.join(" ", anagram));
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		boolean enabled = false;
+		assert enabled = true;
+		if (!enabled)
+			throw new IllegalStateException("run with -ea");
+		Trie trie = Trie.build(WORDS, StringNormalizer.DEFAULT);
+		Set<String> all = new HashSet<>(search(trie, (w) -> w.anagrams(PHRASE, () -> {
+		}, false, false)));
+		walkerFrequencies(trie, all);
+		walkerDistinct(trie, all);
+		graphDistinct(trie, all);
+		System.out.printf("OK: %d anagrams%n", all.size());
+	}
+
+	private interface Start {
+		Search start(TrieWalker walker);
+	}
+
+	private static List<String> search(Trie trie, Start start) {
+		Collector out = new Collector();
+		TrieWalker walker = new TrieWalker(trie, new PassThroughStower(out), 2);
+		start.start(walker).await();
+		return out.anagrams;
+	}
+
+	private static void walkerFrequencies(Trie trie, Set<String> all) {
+		List<String> sample = search(trie, (w) -> w.sample(PHRASE, DRAWS, new Random(1), false, () -> {
+		}));
+		assert sample.size() == DRAWS : sample.size() + " samples";
+		Map<String, Integer> frequencies = new HashMap<>();
+		for (String anagram : sample)
+			frequencies.merge(anagram, 1, Integer::sum);
+		assert frequencies.keySet().equals(all) : "sampled " + frequencies.keySet() + " of " + all;
+		// about 5 standard deviations for 54 anagrams; a path-weighted
+		// sample puts the many-word anagrams several times too high
+		double expected = DRAWS / (double) all.size();
+		for (Map.Entry<String, Integer> e : frequencies.entrySet())
+			assert Math.abs(e.getValue() - expected) < expected * 0.25 : e.getKey() + " drawn " + e.getValue()
+					+ " times; expected about " + (int) expected;
+	}
+
+	private static void walkerDistinct(Trie trie, Set<String> all) {
+		for (int n : new int[] { all.size() / 2, all.size(), all.size() + 5 }) {
+			List<String> sample = search(trie, (w) -> w.sample(PHRASE, n, new Random(n), true, () -> {
+			}));
+			assert sample.size() == Math.min(n, all.size()) : sample.size() + " distinct samples of " + n;
+			assert new HashSet<>(sample).size() == sample.size() : "repeated anagram in " + sample;
+			assert n < all.size() || new HashSet<>(sample).equals(all) : "sampled " + sample + " of " + all;
+		}
+	}
+
+	private static void graphDistinct(Trie trie, Set<String> all) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		search(trie, (w) -> w.graph(PHRASE, bytes, AnagramGraph.Format.BINARY));
+		AnagramGraph graph = AnagramGraph.read(new ByteArrayInputStream(bytes.toByteArray()));
+		List<List<String>> sample = graph.sample(all.size() + 5, new Random(7), true);
+		Set<String> seen = new HashSet<>();
+		for (List<String> anagram : sample)
+			assert seen.add(String.join(" ", anagram)) : "repeated anagram " + anagram;
+		assert seen.equals(all) : "graph sampled " + seen + " of " + all;
+	}
+}
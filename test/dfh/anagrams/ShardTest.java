@@ -0,0 +1,120 @@
+package dfh.anagrams;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks that a search spread over several worker JVMs finds the same
+ * anagrams as a search in one, including when the workers are killed partway
+ * through their shards and the shards are handed to others. Run it with
+ * assertions enabled and the compiled sources on the class path, since the
+ * workers are started with this JVM's class path:
+ *
+ * <pre>
+ * java -ea -cp ... dfh.anagrams.ShardTest
+ * </pre>
+ *
+ * @author houghton
+ *
+ */
+public class ShardTest {
+	private static final String LETTERS = "abcd";
+	/**
+	 * the first shard's anagrams fill more than the pipe and the worker's
+	 * buffer, so the worker on it is still writing when the first anagram
+	 * arrives
+	 */
+	private static final String PHRASE = "abcd abcd abcd";
+	private static final int WORKERS = 2;
+
+	/**
+	 * collects anagrams as space-separated strings of sorted words,
+	 * optionally killing the worker processes when the first arrives
+	 */
+	private static class Collector extends AnagramWriter {
+		final List<String> anagrams = Collections.synchronizedList(new ArrayList<>());
+		final boolean kill;
+		boolean killed;
+
+		Collector(boolean kill) {
+			super(AnagramFormat.TEXT);
+			this.kill = kill;
+		}
+
+		@Override
+		public void write(List<String> anagram) {
+			if (kill && !killed) {
+				ProcessHandle.current().descendants().forEach(ProcessHandle::destroyForcibly);
+				killed = true;
+			}
+			List<String> words = new ArrayList<>(anagram);
+			words.sort(null);
+			anagrams.add(String.join(" ", words));
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		boolean enabled = false;
+		assert enabled = true;
+		if (!enabled)
+			throw new IllegalStateException("run with -ea");
+		File dictionary = File.createTempFile("shard", ".txt");
+		dictionary.deleteOnExit();
+		Files.write(dictionary.toPath(), words());
+		Trie trie = Trie.load(dictionary, StringNormalizer.DEFAULT);
+		List<String> single = single(trie);
+		int shards = new TrieWalker(trie, new PassThroughStower(new Collector(false)), 1).roots(PHRASE).size();
+		assert shards > WORKERS : shards + " shards";
+		sharded(dictionary, shards, single, false);
+		sharded(dictionary, shards, single, true);
+		System.out.printf("OK: %d anagrams in %d shards%n", single.size(), shards);
+	}
+
+	/**
+	 * @return every string of two or three of the letters
+	 */
+	private static List<String> words() {
+		List<String> words = new ArrayList<>();
+		for (char a : LETTERS.toCharArray()) {
+			for (char b : LETTERS.toCharArray()) {
+				words.add("" + a + b);
+				for (char c : LETTERS.toCharArray())
+					words.add("" + a + b + c);
+			}
+		}
+		return words;
+	}
+
+	private static List<String> single(Trie trie) {
+		Collector out = new Collector(false);
+		new TrieWalker(trie, new PassThroughStower(out), 1).anagrams(PHRASE, () -> {
+		}, false, false).await();
+		List<String> anagrams = new ArrayList<>(out.anagrams);
+		anagrams.sort(null);
+		return anagrams;
+	}
+
+	private static void sharded(File dictionary, int shards, List<String> single, boolean kill) {
+		Collector out = new Collector(kill);
+		ShardCoordinator coordinator = new ShardCoordinator(dictionary, PHRASE, WORKERS, 1, new PassThroughStower(out));
+		coordinator.run(shards, () -> {
+		});
+		assert coordinator.failedShards().isEmpty() : "failed shards " + coordinator.failedShards();
+		List<String> anagrams = new ArrayList<>(out.anagrams);
+		anagrams.sort(null);
+		assert anagrams.equals(single) : (kill ? "after the workers were killed, " : "") + anagrams.size()
+				+ " anagrams from " + WORKERS + " workers; " + single.size() + " from one JVM";
+	}
+}